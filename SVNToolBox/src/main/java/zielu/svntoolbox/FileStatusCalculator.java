@@ -5,27 +5,48 @@ package zielu.svntoolbox;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Suppliers;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.PairConsumer;
 import java.io.File;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.idea.svn.SvnApplicationSettings;
 import org.jetbrains.idea.svn.SvnConfiguration;
 import org.jetbrains.idea.svn.SvnStatusUtil;
 import org.jetbrains.idea.svn.SvnUtil;
 import org.jetbrains.idea.svn.SvnVcs;
+import org.jetbrains.idea.svn.api.Depth;
 import org.jetbrains.idea.svn.branchConfig.SvnBranchConfigurationManager;
 import org.jetbrains.idea.svn.branchConfig.SvnBranchConfigurationNew;
 import org.jetbrains.idea.svn.info.Info;
+import org.jetbrains.idea.svn.info.InfoConsumer;
+import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.wc.SVNRevision;
+import zielu.svntoolbox.cli.InfoXmlBatch;
+import zielu.svntoolbox.cli.InfoXmlBatch.EntryConsumer;
+import zielu.svntoolbox.config.SvnToolBoxAppState;
 import zielu.svntoolbox.util.LogStopwatch;
+import zielu.svntoolbox.util.MfSupplier;
+import zielu.svntoolbox.wc.WcDbSnapshot;
+import zielu.svntoolbox.wc.WorkingCopyRoots;
 
 /**
  * <p></p>
@@ -81,7 +102,7 @@ public class FileStatusCalculator {
                 if (!SvnStatusUtil.isUnderControl(project, vFile)) {
                     return false;
                 } else if (!fast) {
-                    if (!getWCRoot(VfsUtilCore.virtualToIoFile(vFile)).isPresent()) {
+                    if (!getWCRoot(project, vFile).isPresent()) {
                         return false;
                     }
                 }
@@ -99,69 +120,120 @@ public class FileStatusCalculator {
         return statusFor(svn, project, vFile);        
     }
 
-    private Optional<VirtualFile> getWCRoot(File currentFile) {
-        //TODO: there is also #getWorkingCopyRootNew for Svn 1.8
-        File root = SvnUtil.getWorkingCopyRootNew(currentFile);
-        if (root == null) {
-            LOG.debug("WC root not found for: file="+currentFile.getAbsolutePath());
-            return Optional.absent();
-        } else {
-            VirtualFile rootVf = SvnUtil.getVirtualFile(root.getPath());
-            assert rootVf != null: "Root VF not found for: "+root.getPath();
-            return Optional.of(rootVf); 
-        } 
+    private Optional<VirtualFile> getWCRoot(@NotNull Project project, @NotNull VirtualFile vFile) {
+        Optional<VirtualFile> root = WorkingCopyRoots.getInstance(project).getRootFor(vFile);
+        if (!root.isPresent() && LOG.isDebugEnabled()) {
+            LOG.debug("WC root not found for: file=" + vFile.getPath());
+        }
+        return root;
     }
     
-    private Optional<FileStatus> statusForCli(Project project, SVNURL fileUrl, File currentFile) {
+    private Optional<FileStatus> statusForCli(Project project, SVNURL fileUrl, VirtualFile root) {
         LogStopwatch watch = LogStopwatch.debugStopwatch(LOG, SvnToolBoxProject.getInstance(project).sequence(),
                 Suppliers.ofInstance("Status For Cli")).start();
-        Optional<VirtualFile> root = getWCRoot(currentFile);
-        watch.tick("WC Root");
-        if (root.isPresent()) {
-            try {
-                SvnBranchConfigurationManager branchManager = SvnBranchConfigurationManager.getInstance(project);
-                watch.tick("Root VF by File");
-                SvnBranchConfigurationNew branchConfig = branchManager.get(root.get());
-                watch.tick("Branch Config");
-                String fileUrlPath = fileUrl.toString();
-                String baseName = branchConfig.getBaseName(fileUrlPath);
-                watch.tick("Base Name");
-                watch.stop();
-                return Optional.of(new FileStatus(fileUrl, baseName));
-            } catch (Exception e) {
-                LOG.error("Could not get branch configuration", e);
-            }            
-        } else {
+        try {
+            SvnBranchConfigurationManager branchManager = SvnBranchConfigurationManager.getInstance(project);
+            watch.tick("Root VF by File");
+            SvnBranchConfigurationNew branchConfig = branchManager.get(root);
+            watch.tick("Branch Config");
+            String fileUrlPath = fileUrl.toString();
+            String baseName = branchConfig.getBaseName(fileUrlPath);
+            watch.tick("Base Name");
+            return Optional.of(new FileStatus(fileUrl, baseName));
+        } catch (Exception e) {
+            LOG.error("Could not get branch configuration", e);
+        } finally {
             watch.stop();
         }
         return Optional.absent();
     }
     
-    private Optional<FileStatus> statusForSvnKit(Info info, SvnVcs svn, SVNURL fileUrl, File currentFile) {
-        Optional<VirtualFile> root = getWCRoot(currentFile);
-        if (root.isPresent()) {
-            SVNURL branch = SvnUtil.getBranchForUrl(svn, root.get(), fileUrl.toString());
-            return Optional.of(new FileStatus(fileUrl, branch));
+    private Optional<FileStatus> statusForSvnKit(SvnVcs svn, SVNURL fileUrl, VirtualFile root) {
+        SVNURL branch = SvnUtil.getBranchForUrl(svn, root, fileUrl.toString());
+        return Optional.of(new FileStatus(fileUrl, branch));
+    }
+
+    private Optional<FileStatus> statusForWcDb(SvnVcs svn, Project project, FileStatusTarget target) {
+        if (!SvnToolBoxAppState.getInstance().readWcDbDirectly) {
+            return Optional.absent();
+        }
+        if (target.root == null || target.relPath == null) {
+            return Optional.absent();
+        }
+        Optional<WcDbSnapshot> snapshot = WorkingCopyRoots.getInstance(project).getSnapshot(target.root);
+        if (snapshot.isPresent()) {
+            Optional<SVNURL> fileUrl = snapshot.get().getUrl(target.relPath);
+            if (fileUrl.isPresent()) {
+                return statusForRoot(svn, project, fileUrl.get(), target.root);
+            }
         }
         return Optional.absent();
     }
+
+    private Optional<FileStatus> statusForRoot(SvnVcs svn, Project project, SVNURL fileUrl, VirtualFile root) {
+        SvnConfiguration svnConfig = SvnConfiguration.getInstance(project);
+        if (svnConfig.isCommandLine()) {
+            return statusForCli(project, fileUrl, root);
+        } else {
+            return statusForSvnKit(svn, fileUrl, root);
+        }
+    }
     
     @NotNull
     public FileStatus statusFor(@NotNull SvnVcs svn, @NotNull Project project, @NotNull VirtualFile vFile) {
-        File currentFile = VfsUtilCore.virtualToIoFile(vFile);
-        SVNURL fileUrl = SvnUtil.getUrl(svn, currentFile);
+        return statusFor(svn, project, prepare(project, vFile));
+    }
+
+    /**
+     * Capture VFS and VCS mapping state needed to calculate status of file.
+     * <p>Should be called under read lock and is cheap - no svn I/O is performed.</p>
+     *
+     * @param project project file belongs to
+     * @param vFile   file to calculate status for
+     * @return snapshot of file state
+     */
+    @NotNull
+    public FileStatusTarget prepare(@NotNull Project project, @NotNull VirtualFile vFile) {
+        Optional<VirtualFile> wcRoot = getWCRoot(project, vFile);
+        String relPath = null;
+        boolean underControl = false;
+        if (wcRoot.isPresent() && vFile.isValid()) {
+            relPath = VfsUtilCore.getRelativePath(vFile, wcRoot.get(), '/');
+            underControl = SvnStatusUtil.isUnderControl(project, vFile);
+        }
+        return new FileStatusTarget(vFile, wcRoot.orNull(), relPath, underControl);
+    }
+
+    /**
+     * @see #prepare(Project, VirtualFile)
+     */
+    @NotNull
+    public List<FileStatusTarget> prepareAll(@NotNull Project project, @NotNull Collection<VirtualFile> vFiles) {
+        List<FileStatusTarget> targets = Lists.newArrayListWithCapacity(vFiles.size());
+        for (VirtualFile vFile : vFiles) {
+            ProgressManager.checkCanceled();
+            targets.add(prepare(project, vFile));
+        }
+        return targets;
+    }
+
+    @NotNull
+    private FileStatus statusFor(@NotNull SvnVcs svn, @NotNull Project project, @NotNull FileStatusTarget target) {
+        if (target.root != null && target.underControl) {
+            Optional<FileStatus> status = statusForWcDb(svn, project, target);
+            if (status.isPresent()) {
+                return status.get();
+            }
+        }
+        SVNURL fileUrl = SvnUtil.getUrl(svn, target.ioFile);
         if (fileUrl != null) {
-            Info info = svn.getInfo(vFile);
+            Info info = svn.getInfo(target.ioFile);
             if (info != null) {
-                SvnConfiguration svnConfig = SvnConfiguration.getInstance(project);
-                Optional<FileStatus> status;
-                if (svnConfig.isCommandLine()) {
-                    status = statusForCli(project, fileUrl, currentFile);                    
-                } else {
-                    status = statusForSvnKit(info, svn, fileUrl, currentFile);                    
-                }
-                if (status.isPresent()) {
-                    return status.get();
+                if (target.root != null) {
+                    Optional<FileStatus> status = statusForRoot(svn, project, fileUrl, target.root);
+                    if (status.isPresent()) {
+                        return status.get();
+                    }
                 }
             } else {
                 return new FileStatus(fileUrl);
@@ -169,4 +241,181 @@ public class FileStatusCalculator {
         }
         return FileStatus.EMPTY;
     }
+
+    /**
+     * Calculate statuses for many files at once.
+     *
+     * @param project project files belong to
+     * @param vFiles  files to calculate status for
+     * @return status for each passed file
+     * @see #statusForAll(Project, Collection, PairConsumer)
+     */
+    @NotNull
+    public Map<VirtualFile, FileStatus> statusForAll(@Nullable Project project, @NotNull Collection<VirtualFile> vFiles) {
+        return statusForAll(project, vFiles, null);
+    }
+
+    /**
+     * Calculate statuses for many files at once.
+     *
+     * @param project  project files belong to
+     * @param vFiles   files to calculate status for
+     * @param listener optional listener notified about each status as soon as it is known
+     * @return status for each passed file
+     * @see #statusForTargets(Project, Collection, PairConsumer)
+     */
+    @NotNull
+    public Map<VirtualFile, FileStatus> statusForAll(@Nullable Project project, @NotNull Collection<VirtualFile> vFiles,
+                                                     @Nullable PairConsumer<VirtualFile, FileStatus> listener) {
+        if (project == null) {
+            Map<VirtualFile, FileStatus> result = Maps.newLinkedHashMap();
+            for (VirtualFile vFile : vFiles) {
+                publish(result, listener, vFile, FileStatus.EMPTY);
+            }
+            return result;
+        }
+        return statusForTargets(project, prepareAll(project, vFiles), listener);
+    }
+
+    /**
+     * Calculate statuses for many prepared files at once. Does not require read lock.
+     * <p>Files are grouped by working copy root and parent directory. In command line mode info for each root
+     * is fetched with single streamed <code>svn info --xml</code> call, otherwise with single depth-immediates call
+     * per directory.</p>
+     *
+     * @param project  project files belong to
+     * @param targets  files prepared with {@link #prepareAll(Project, Collection)}
+     * @param listener optional listener notified about each status as soon as it is known
+     * @return status for each passed file
+     */
+    @NotNull
+    public Map<VirtualFile, FileStatus> statusForTargets(@NotNull Project project, @NotNull Collection<FileStatusTarget> targets,
+                                                         @Nullable PairConsumer<VirtualFile, FileStatus> listener) {
+        Map<VirtualFile, FileStatus> result = Maps.newLinkedHashMap();
+        SvnVcs svn = SvnVcs.getInstance(project);
+        LogStopwatch watch = LogStopwatch.debugStopwatch(LOG, SvnToolBoxProject.getInstance(project).sequence(),
+                new MfSupplier("Status For All {0}", targets.size())).start();
+        Map<VirtualFile, ListMultimap<VirtualFile, FileStatusTarget>> groups = Maps.newLinkedHashMap();
+        for (FileStatusTarget target : targets) {
+            if (target.root == null) {
+                publish(result, listener, target.file, FileStatus.EMPTY);
+                continue;
+            }
+            if (target.underControl) {
+                Optional<FileStatus> status = statusForWcDb(svn, project, target);
+                if (status.isPresent()) {
+                    publish(result, listener, target.file, status.get());
+                    continue;
+                }
+            }
+            if (target.isRoot()) {
+                publish(result, listener, target.file, statusFor(svn, project, target));
+            } else {
+                ListMultimap<VirtualFile, FileStatusTarget> byParent = groups.get(target.root);
+                if (byParent == null) {
+                    byParent = ArrayListMultimap.create();
+                    groups.put(target.root, byParent);
+                }
+                byParent.put(target.parent, target);
+            }
+        }
+        watch.tick("Grouped into {0} roots", groups.size());
+        boolean commandLine = SvnConfiguration.getInstance(project).isCommandLine();
+        for (Entry<VirtualFile, ListMultimap<VirtualFile, FileStatusTarget>> rootGroup : groups.entrySet()) {
+            VirtualFile root = rootGroup.getKey();
+            if (commandLine) {
+                statusForAllCli(svn, project, root, rootGroup.getValue().values(), result, listener);
+            } else {
+                for (Entry<VirtualFile, Collection<FileStatusTarget>> dirGroup : rootGroup.getValue().asMap().entrySet()) {
+                    statusForDirectory(svn, project, root, dirGroup.getKey(), dirGroup.getValue(), result, listener);
+                }
+            }
+            watch.tick("Root {0} done", root.getPath());
+        }
+        watch.stop();
+        return result;
+    }
+
+    private void publish(Map<VirtualFile, FileStatus> result, @Nullable PairConsumer<VirtualFile, FileStatus> listener,
+                         VirtualFile vFile, FileStatus status) {
+        result.put(vFile, status);
+        if (listener != null) {
+            listener.consume(vFile, status);
+        }
+    }
+
+    private void statusForDirectory(SvnVcs svn, Project project, VirtualFile root, VirtualFile dir, Collection<FileStatusTarget> files,
+                                    Map<VirtualFile, FileStatus> result, @Nullable PairConsumer<VirtualFile, FileStatus> listener) {
+        if (files.size() == 1) {
+            FileStatusTarget target = files.iterator().next();
+            publish(result, listener, target.file, statusFor(svn, project, target));
+        } else {
+            Map<String, Info> infos = infoForChildren(svn, dir);
+            for (FileStatusTarget target : files) {
+                Info info = infos.get(target.ioFile.getName());
+                FileStatus status = null;
+                if (info != null && info.getURL() != null) {
+                    status = statusForRoot(svn, project, info.getURL(), root).orNull();
+                }
+                if (status == null) {
+                    status = statusFor(svn, project, target);
+                }
+                publish(result, listener, target.file, status);
+            }
+        }
+    }
+
+    private void statusForAllCli(final SvnVcs svn, final Project project, final VirtualFile root, Collection<FileStatusTarget> files,
+                                 final Map<VirtualFile, FileStatus> result, @Nullable final PairConsumer<VirtualFile, FileStatus> listener) {
+        final Map<File, FileStatusTarget> targets = Maps.newLinkedHashMap();
+        for (FileStatusTarget target : files) {
+            targets.put(target.ioFile, target);
+        }
+        final Set<VirtualFile> listed = Sets.newHashSet();
+        String svnPath = SvnApplicationSettings.getInstance().getCommandLinePath();
+        String configDir = SvnConfiguration.getInstance(project).getConfigurationDirectory();
+        Set<File> completed = new InfoXmlBatch(svnPath, configDir).run(VfsUtilCore.virtualToIoFile(root), targets.keySet(), new EntryConsumer() {
+            @Override
+            public void consume(@NotNull File file, @NotNull SVNURL url) {
+                FileStatusTarget target = targets.get(file);
+                if (target != null) {
+                    listed.add(target.file);
+                    Optional<FileStatus> status = statusForRoot(svn, project, url, root);
+                    if (status.isPresent()) {
+                        publish(result, listener, target.file, status.get());
+                    }
+                }
+            }
+        });
+        for (FileStatusTarget target : targets.values()) {
+            if (!result.containsKey(target.file)) {
+                if (completed.contains(target.ioFile) && !listed.contains(target.file)) {
+                    //no entry in completed chunk means file is not versioned
+                    publish(result, listener, target.file, FileStatus.EMPTY);
+                } else {
+                    publish(result, listener, target.file, statusFor(svn, project, target));
+                }
+            }
+        }
+    }
+
+    private Map<String, Info> infoForChildren(SvnVcs svn, VirtualFile dir) {
+        final File dirFile = VfsUtilCore.virtualToIoFile(dir);
+        final Map<String, Info> infos = Maps.newHashMap();
+        try {
+            svn.getFactory(dirFile).createInfoClient().doInfo(dirFile, SVNRevision.UNDEFINED, SVNRevision.UNDEFINED,
+                    Depth.IMMEDIATES, null, new InfoConsumer() {
+                        @Override
+                        public void consume(Info info) throws SVNException {
+                            File file = info.getFile();
+                            if (file != null && !FileUtil.filesEqual(dirFile, file)) {
+                                infos.put(file.getName(), info);
+                            }
+                        }
+                    });
+        } catch (VcsException e) {
+            LOG.warn("Could not get info for children of " + dir.getPath(), e);
+        }
+        return infos;
+    }
 }
@@ -0,0 +1,55 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox;
+
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import java.io.File;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>Immutable snapshot of everything status calculation needs to know about file from VFS and VCS mappings.</p>
+ * <p>Taken under read lock, so svn I/O can be performed later without holding it.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+public class FileStatusTarget {
+    public final VirtualFile file;
+    public final File ioFile;
+    @Nullable
+    public final VirtualFile parent;
+    /**
+     * Working copy root, <code>null</code> if file is not inside known working copy
+     */
+    @Nullable
+    public final VirtualFile root;
+    /**
+     * Path relative to working copy root using <code>/</code> as separator, <code>null</code> if not available
+     */
+    @Nullable
+    public final String relPath;
+    public final boolean underControl;
+
+    FileStatusTarget(@NotNull VirtualFile file, @Nullable VirtualFile root, @Nullable String relPath, boolean underControl) {
+        this.file = file;
+        this.ioFile = VfsUtilCore.virtualToIoFile(file);
+        this.parent = file.getParent();
+        this.root = root;
+        this.relPath = relPath;
+        this.underControl = underControl;
+    }
+
+    public boolean isRoot() {
+        return parent == null || file.equals(root);
+    }
+
+    @Override
+    public String toString() {
+        return "FileStatusTarget[" + file.getPath() + ", root=" + (root != null ? root.getPath() : null)
+                + ", underControl=" + underControl + "]";
+    }
+}
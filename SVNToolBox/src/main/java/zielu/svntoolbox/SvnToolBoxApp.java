@@ -12,17 +12,20 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ApplicationComponent;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.extensions.Extensions;
+import com.intellij.openapi.project.Project;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import org.jetbrains.annotations.NotNull;
+import zielu.svntoolbox.async.FairTaskScheduler;
+import zielu.svntoolbox.config.SvnToolBoxAppState;
 import zielu.svntoolbox.extensions.NodeDecorationEP;
+import zielu.svntoolbox.ui.projectView.DecorationSelectionCache;
 import zielu.svntoolbox.ui.projectView.NodeDecoration;
 import zielu.svntoolbox.ui.projectView.impl.EmptyDecoration;
 
@@ -34,11 +37,14 @@ import zielu.svntoolbox.ui.projectView.impl.EmptyDecoration;
  * @author Lukasz Zielinski
  */
 public class SvnToolBoxApp implements ApplicationComponent {
+    private static final int UPKEEP_THREADS = 2;
+
     private final Logger LOG = Logger.getInstance(getClass());
     private final List<NodeDecoration> myNodeDecorations = Lists.newArrayList();
     public static final NotificationGroup NOTIFICATION = new NotificationGroup("SVN ToolBox Messages", NotificationDisplayType.STICKY_BALLOON, true);
 
-    private ExecutorService myExecutor;
+    private FairTaskScheduler myScheduler;
+    private FairTaskScheduler myUpkeepScheduler;
     private ScheduledExecutorService myScheduledExecutor;
 
     public static SvnToolBoxApp getInstance() {
@@ -47,7 +53,68 @@ public class SvnToolBoxApp implements ApplicationComponent {
 
     public Future<?> submit(Runnable task) {
         //return ApplicationManager.getApplication().executeOnPooledThread(task);
-        return myExecutor.submit(task);
+        return myScheduler.submit(this, task);
+    }
+
+    /**
+     * Submit task on behalf of project. Worker threads are shared fairly between projects.
+     */
+    public Future<?> submit(@NotNull Project project, @NotNull Runnable task) {
+        return myScheduler.submit(project, task);
+    }
+
+    /**
+     * Submit short bookkeeping task on behalf of project. Such tasks have their own threads,
+     * so they do not wait behind long running status calculations.
+     */
+    public Future<?> submitUpkeep(@NotNull Project project, @NotNull Runnable task) {
+        return myUpkeepScheduler.submit(project, task);
+    }
+
+    /**
+     * Submit short bookkeeping task not bound to any project.
+     */
+    public Future<?> submitUpkeep(@NotNull Runnable task) {
+        return myUpkeepScheduler.submit(this, task);
+    }
+
+    /**
+     * Cancel all queued and running tasks of project.
+     */
+    public void cancelTasks(@NotNull Project project) {
+        myScheduler.cancel(project);
+        myUpkeepScheduler.cancel(project);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Cancelled tasks of " + project.getName() + ": " + myScheduler.getReport());
+        }
+    }
+
+    /**
+     * @return active, queued and completed task counts of shared scheduler
+     */
+    public String getSchedulerReport() {
+        return myScheduler.getReport();
+    }
+
+    /**
+     * @return number of running tasks of project in shared scheduler
+     */
+    public int getActiveTaskCount(@NotNull Project project) {
+        return myScheduler.getActiveCount(project);
+    }
+
+    /**
+     * @return number of tasks of project waiting for shared scheduler thread
+     */
+    public int getQueuedTaskCount(@NotNull Project project) {
+        return myScheduler.getQueuedCount(project);
+    }
+
+    /**
+     * @return active, queued and completed task counts of project in shared scheduler
+     */
+    public String getSchedulerReport(@NotNull Project project) {
+        return myScheduler.getReport(project);
     }
 
     public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit timeUnit) {
@@ -56,13 +123,9 @@ public class SvnToolBoxApp implements ApplicationComponent {
 
     @Override
     public void initComponent() {
-        myExecutor = Executors.newCachedThreadPool(
-                new ThreadFactoryBuilder()
-                        .setDaemon(true)
-                        .setNameFormat(getComponentName()+"-pool-%s")
-                        .setPriority(Thread.NORM_PRIORITY)
-                        .build()
-        );
+        myScheduler = new FairTaskScheduler(getComponentName() + "-pool",
+                SvnToolBoxAppState.getInstance().getSchedulerThreadCount());
+        myUpkeepScheduler = new FairTaskScheduler(getComponentName() + "-upkeep-pool", UPKEEP_THREADS);
         myScheduledExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
                 .setDaemon(true)
                 .setNameFormat(getComponentName() + "-scheduled-pool-%s")
@@ -81,6 +144,20 @@ public class SvnToolBoxApp implements ApplicationComponent {
     }
 
     public NodeDecoration decorationFor(ProjectViewNode node) {
+        Project project = node.getProject();
+        if (project == null) {
+            return selectDecoration(node);
+        }
+        DecorationSelectionCache selections = SvnToolBoxProject.getInstance(project).decorationSelections();
+        NodeDecoration decoration = selections.get(node);
+        if (decoration == null) {
+            decoration = selectDecoration(node);
+            selections.put(node, decoration);
+        }
+        return decoration;
+    }
+
+    private NodeDecoration selectDecoration(ProjectViewNode node) {
         for (NodeDecoration candidate : myNodeDecorations) {
             if (candidate.isForMe(node)) {
                 return candidate;
@@ -91,8 +168,14 @@ public class SvnToolBoxApp implements ApplicationComponent {
 
     @Override
     public void disposeComponent() {
-        if (myExecutor != null) {
-            myExecutor.shutdownNow();
+        if (myScheduler != null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Shutting down scheduler: " + myScheduler.getReport());
+            }
+            myScheduler.shutdownNow();
+        }
+        if (myUpkeepScheduler != null) {
+            myUpkeepScheduler.shutdownNow();
         }
         myNodeDecorations.clear();
     }
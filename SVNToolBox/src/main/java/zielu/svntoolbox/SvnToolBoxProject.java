@@ -4,14 +4,18 @@
 package zielu.svntoolbox;
 
 import com.google.common.base.Supplier;
+import com.intellij.ProjectTopics;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.AbstractProjectComponent;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootAdapter;
+import com.intellij.openapi.roots.ModuleRootEvent;
 import com.intellij.openapi.wm.StatusBar;
 import com.intellij.openapi.wm.WindowManager;
 import org.jetbrains.annotations.NotNull;
 import zielu.svntoolbox.ui.SvnBranchWidget;
+import zielu.svntoolbox.ui.projectView.DecorationSelectionCache;
 import zielu.svntoolbox.util.IntegerSequenceSupplier;
 
 /**
@@ -25,6 +29,7 @@ public class SvnToolBoxProject extends AbstractProjectComponent {
     private final Logger LOG = Logger.getInstance(getClass());
 
     private final Supplier<Integer> PV_SEQ = new IntegerSequenceSupplier();
+    private final DecorationSelectionCache myDecorationSelections = new DecorationSelectionCache();
     
     private SvnBranchWidget myBranchWidget;    
     
@@ -39,6 +44,21 @@ public class SvnToolBoxProject extends AbstractProjectComponent {
     public Supplier<Integer> sequence() {
         return PV_SEQ;
     }
+
+    public DecorationSelectionCache decorationSelections() {
+        return myDecorationSelections;
+    }
+
+    @Override
+    public void initComponent() {
+        super.initComponent();
+        myProject.getMessageBus().connect(myProject).subscribe(ProjectTopics.PROJECT_ROOTS, new ModuleRootAdapter() {
+            @Override
+            public void rootsChanged(ModuleRootEvent event) {
+                myDecorationSelections.clear();
+            }
+        });
+    }
     
     @Override
     public void projectOpened() {
@@ -3,35 +3,58 @@
  */
 package zielu.svntoolbox.async;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
-import com.intellij.openapi.application.AccessToken;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.AbstractProjectComponent;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.FileEditorManagerAdapter;
+import com.intellij.openapi.fileEditor.FileEditorManagerEvent;
+import com.intellij.openapi.fileEditor.FileEditorManagerListener;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.DumbService.DumbModeListener;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.startup.StartupManager;
+import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.util.containers.ConcurrentHashSet;
+import com.intellij.util.PairConsumer;
 import com.intellij.util.messages.MessageBusConnection;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import zielu.svntoolbox.FileStatus;
 import zielu.svntoolbox.FileStatusCalculator;
+import zielu.svntoolbox.FileStatusTarget;
 import zielu.svntoolbox.SvnToolBoxApp;
 import zielu.svntoolbox.SvnToolBoxProject;
+import zielu.svntoolbox.config.SvnToolBoxAppState;
+import zielu.svntoolbox.config.SvnToolBoxProjectState;
 import zielu.svntoolbox.projectView.ProjectViewManager;
 import zielu.svntoolbox.projectView.ProjectViewStatus;
 import zielu.svntoolbox.projectView.ProjectViewStatusCache;
+import zielu.svntoolbox.projectView.ProjectViewStatusCache.PutResult;
+import zielu.svntoolbox.ui.projectView.VisibleNodesTracker;
 import zielu.svntoolbox.util.LogStopwatch;
 import zielu.svntoolbox.util.MfSupplier;
+import zielu.svntoolbox.wc.WorkingCopyRoots;
 
 /**
  * <p></p>
@@ -41,25 +64,45 @@ import zielu.svntoolbox.util.MfSupplier;
  * @author Lukasz Zielinski
  */
 public class AsyncFileStatusCalculator extends AbstractProjectComponent implements AsyncStatusCalc {
+    private static final int BATCH_SIZE = 100;
+    //status resolution needs no indices, during indexing it only gives way to it
+    private static final int DUMB_MODE_BATCH_SIZE = 25;
+    private static final int DUMB_MODE_WORKERS = 1;
+    //minimal pause after each batch, longer batches get equally long pause so workers stay idle half of the time
+    //worker gives its thread back for the pause and keeps only its slot
+    private static final long DUMB_MODE_PAUSE_MILLIS = 100;
+    //worker yields its thread after that many batches so other projects get their share
+    private static final int BATCHES_PER_TASK = 4;
+    private static final long POLL_TIMEOUT_MILLIS = 150;
+    private static final long WRITE_ACTION_BACKOFF_MILLIS = 20;
+    private static final int DROP_REPORT_INTERVAL = 1000;
+
     private final Logger LOG = Logger.getInstance(getClass());
 
     private final SvnToolBoxApp app;
     
     private final FileStatusCalculator myStatusCalc = new FileStatusCalculator();
-    private final BlockingQueue<StatusRequest> myRequestQueue = new LinkedBlockingQueue<StatusRequest>();
-    private final Set<VirtualFile> myPendingFiles = new ConcurrentHashSet<VirtualFile>();
+    private final StatusRequestQueue myRequestQueue;
 
     private final AtomicBoolean myActive = new AtomicBoolean();
-    private final AtomicBoolean myCalculationInProgress = new AtomicBoolean();
-    private final AtomicBoolean myCalculationAllowed = new AtomicBoolean(true);
+    private final AtomicInteger myActiveWorkers = new AtomicInteger();
 
     private ProjectViewManager myProjectViewManager;
     private Supplier<Integer> PV_SEQ;
     private MessageBusConnection myConnection;
+    private VisibleNodesTracker myVisibleNodes;
+    private volatile VirtualFile mySelectedFile;
 
     public AsyncFileStatusCalculator(Project project, SvnToolBoxApp app) {
         super(project);
         this.app = app;        
+        myRequestQueue = new StatusRequestQueue(SvnToolBoxAppState.getInstance().getStatusQueueCapacity(),
+                new StatusRequestQueue.DropListener() {
+                    @Override
+                    public void dropped(@NotNull VirtualFile file) {
+                        requestDropped(file);
+                    }
+                });
     }
 
     public static AsyncFileStatusCalculator getInstance(@NotNull Project project) {
@@ -73,12 +116,36 @@ public class AsyncFileStatusCalculator extends AbstractProjectComponent implemen
             myProjectViewManager = ProjectViewManager.getInstance(myProject);
             PV_SEQ = SvnToolBoxProject.getInstance(myProject).sequence();
             myConnection = myProject.getMessageBus().connect();
+            myVisibleNodes = new VisibleNodesTracker(myProject, new VisibleNodesTracker.Listener() {
+                @Override
+                public void visibleChanged(@NotNull Set<VirtualFile> visible) {
+                    int promoted = myRequestQueue.prioritize(visible, RequestPriority.Visible);
+                    if (promoted > 0 && LOG.isDebugEnabled()) {
+                        LOG.debug("[" + PV_SEQ.get() + "] Promoted " + promoted + " visible requests");
+                    }
+                }
+
+                @Override
+                public void collapsed(@NotNull VirtualFile directory) {
+                    cancelUnder(directory);
+                }
+            });
+            myConnection.subscribe(FileEditorManagerListener.FILE_EDITOR_MANAGER, new FileEditorManagerAdapter() {
+                @Override
+                public void selectionChanged(@NotNull FileEditorManagerEvent event) {
+                    VirtualFile selected = event.getNewFile();
+                    mySelectedFile = selected;
+                    if (selected != null) {
+                        myRequestQueue.prioritize(Collections.singleton(selected), RequestPriority.StatusBar);
+                    }
+                }
+            });
             myConnection.subscribe(DumbService.DUMB_MODE, new DumbModeListener() {
                 @Override
                 public void enteredDumbMode() {
-                    myCalculationAllowed.compareAndSet(true, false);
+                    //running workers check dumb mode before each batch
                     if (LOG.isDebugEnabled()) {
-                        LOG.debug("[" + PV_SEQ.get() + "] Entered Dumb-Mode");
+                        LOG.debug("[" + PV_SEQ.get() + "] Entered Dumb-Mode, continuing at reduced rate");
                     }
                 }
 
@@ -87,7 +154,6 @@ public class AsyncFileStatusCalculator extends AbstractProjectComponent implemen
                     if (LOG.isDebugEnabled()) {
                         LOG.debug("[" + PV_SEQ.get() + "] Exit Dumb-Mode");
                     }
-                    myCalculationAllowed.compareAndSet(false, true);
                     calculateStatus();
                 }
             });
@@ -105,17 +171,28 @@ public class AsyncFileStatusCalculator extends AbstractProjectComponent implemen
     public void calculateStatus() {
         final boolean DEBUG = LOG.isDebugEnabled();
         if (myActive.get()) {
-            if (myCalculationAllowed.get()) {
-                if (!myCalculationInProgress.get()) {
-                    app.submit(new Task());
-                } else {
-                    if (DEBUG) {
-                        LOG.debug("[" + PV_SEQ.get() + "] Another status calculation in progress");
+            boolean dumb = DumbService.isDumb(myProject);
+            int maxWorkers = dumb ? DUMB_MODE_WORKERS : SvnToolBoxAppState.getInstance().getStatusWorkerCount();
+            int wanted = Math.min(maxWorkers, myActiveWorkers.get() + myRequestQueue.claimableLanes());
+            int started = 0;
+            int active = myActiveWorkers.get();
+            while (active < wanted) {
+                if (myActiveWorkers.compareAndSet(active, active + 1)) {
+                    if (startWorker()) {
+                        started++;
+                    } else {
+                        break;
                     }
                 }
-            } else {
-                if (DEBUG) {
-                    LOG.debug("[" + PV_SEQ.get() + "] Calculation not available at this moment");
+                active = myActiveWorkers.get();
+            }
+            if (DEBUG) {
+                if (started > 0) {
+                    LOG.debug("[" + PV_SEQ.get() + "] Started " + started + " status workers, active=" + active
+                            + ", dumbMode=" + dumb);
+                } else {
+                    LOG.debug("[" + PV_SEQ.get() + "] Status workers busy, active=" + active + ", tasks=["
+                            + app.getSchedulerReport(myProject) + "]");
                 }
             }
         } else {
@@ -125,41 +202,174 @@ public class AsyncFileStatusCalculator extends AbstractProjectComponent implemen
         }
     }
 
+    /**
+     * Submit worker for slot already claimed in active workers count, slot is given back when worker cannot run.
+     *
+     * @return <code>true</code> if worker was queued
+     */
+    private boolean startWorker() {
+        WorkerTask worker = new WorkerTask();
+        Future<?> future = null;
+        try {
+            future = app.submit(myProject, worker);
+        } finally {
+            if (future == null || future.isCancelled()) {
+                //rejected or scheduler shut down, worker will never release its slot by itself
+                worker.release();
+            }
+        }
+        return !future.isCancelled();
+    }
+
+    @Override
+    public void projectOpened() {
+        super.projectOpened();
+        FileEditorManager editorManager = FileEditorManager.getInstance(myProject);
+        VirtualFile[] selectedFiles = editorManager.getSelectedFiles();
+        mySelectedFile = selectedFiles.length > 0 ? selectedFiles[0] : null;
+        StartupManager.getInstance(myProject).runWhenProjectIsInitialized(new Runnable() {
+            @Override
+            public void run() {
+                //roots come from module model and statuses from svn, no need to wait for indexing
+                if (myActive.get() && SvnToolBoxProjectState.getInstance(myProject).showingAnyDecorations()) {
+                    final Set<VirtualFile> roots = collectWarmUpRoots();
+                    app.submitUpkeep(myProject, new Runnable() {
+                        @Override
+                        public void run() {
+                            warmUp(roots);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private Set<VirtualFile> collectWarmUpRoots() {
+        Set<VirtualFile> roots = Sets.newLinkedHashSet();
+        for (Module module : ModuleManager.getInstance(myProject).getModules()) {
+            ModuleRootManager rootManager = ModuleRootManager.getInstance(module);
+            Collections.addAll(roots, rootManager.getContentRoots());
+            Collections.addAll(roots, rootManager.getSourceRoots());
+        }
+        return roots;
+    }
+
+    /**
+     * Queue statuses of module, content and source roots so they are known before Project View asks for them.
+     * Roots are checked in short read actions on pooled thread. Read action gives way to pending write actions,
+     * root interrupted that way is skipped and gets its status when Project View asks for it.
+     */
+    private void warmUp(Set<VirtualFile> roots) {
+        final ProjectViewStatusCache cache = myProjectViewManager.getStatusCache();
+        final AtomicInteger queued = new AtomicInteger();
+        for (final VirtualFile root : roots) {
+            if (!myActive.get() || myProject.isDisposed()) {
+                return;
+            }
+            ProgressIndicatorUtils.runInReadActionWithWriteActionPriority(new Runnable() {
+                @Override
+                public void run() {
+                    if (root.isValid() && cache.get(root) == null && myStatusCalc.fastAllFilesUnderSvn(myProject, root)) {
+                        cache.tryAdd(root, ProjectViewStatus.PENDING);
+                        if (enqueue(root, RequestPriority.WarmUp)) {
+                            queued.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[" + PV_SEQ.get() + "] Warm-up queued " + queued.get() + " roots");
+        }
+        if (queued.get() > 0) {
+            calculateStatus();
+        }
+    }
+
     @Override
     public void projectClosed() {
         if (myActive.compareAndSet(true, false)) {
-            int pendingFiles = myPendingFiles.size();
-            myPendingFiles.clear();
             if (LOG.isDebugEnabled()) {
-                LOG.debug("[" + PV_SEQ.get() + "] Project closed. Pending: files=" + pendingFiles + ", requests=" + myRequestQueue.size());
+                LOG.debug("[" + PV_SEQ.get() + "] Project closed. Request queue: " + myRequestQueue.getReport());
             }
             myRequestQueue.clear();
+            app.cancelTasks(myProject);
             myConnection.disconnect();
+            myVisibleNodes.dispose();
+            mySelectedFile = null;
         }
         super.projectClosed();
     }
 
     @Override
     public void disposeComponent() {
+        String queueReport = myRequestQueue.getReport();
         myRequestQueue.clear();
-        int pendingFiles = myPendingFiles.size();
-        myPendingFiles.clear();
         if (LOG.isDebugEnabled()) {
-            LOG.debug("[" + PV_SEQ.get() + "] Component disposed. Pending: files=" + pendingFiles + ", requests=" + myRequestQueue.size());
+            LOG.debug("[" + PV_SEQ.get() + "] Component disposed. Request queue: " + queueReport);
         }        
         super.disposeComponent();
     }
 
+    private void requestDropped(VirtualFile file) {
+        //shed request was forgotten, drop pending marker so request is made again when node is shown
+        ProjectViewManager projectViewManager = myProjectViewManager;
+        if (projectViewManager != null) {
+            projectViewManager.getStatusCache().evict(file);
+        }
+        if (LOG.isDebugEnabled()) {
+            long dropped = myRequestQueue.getDroppedCount();
+            if (dropped % DROP_REPORT_INTERVAL == 1) {
+                LOG.debug("[" + PV_SEQ.get() + "] Status queue overloaded, forgetting shed requests: " + myRequestQueue.getReport());
+            }
+        }
+    }
+
+    private void cancelUnder(VirtualFile directory) {
+        List<VirtualFile> cancelled = myRequestQueue.cancelUnder(directory);
+        if (!cancelled.isEmpty()) {
+            //drop pending markers so requests are made again when nodes are shown
+            ProjectViewStatusCache cache = myProjectViewManager.getStatusCache();
+            for (VirtualFile file : cancelled) {
+                cache.evict(file);
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("[" + PV_SEQ.get() + "] Cancelled " + cancelled.size() + " requests under collapsed " + directory.getPath());
+            }
+        }
+    }
+
+    private RequestPriority priorityOf(VirtualFile vFile) {
+        if (vFile.equals(mySelectedFile)) {
+            return RequestPriority.StatusBar;
+        } else if (myVisibleNodes.isVisible(vFile)) {
+            return RequestPriority.Visible;
+        } else {
+            return RequestPriority.Background;
+        }
+    }
+
+    private boolean enqueue(VirtualFile vFile, RequestPriority priority) {
+        VirtualFile root = WorkingCopyRoots.getInstance(myProject).getRootFor(vFile).orNull();
+        long generation = myProjectViewManager.getStatusCache().getGeneration(root);
+        boolean queued = myRequestQueue.add(vFile, root, generation, priority);
+        if (queued && LOG.isDebugEnabled()) {
+            LOG.debug("[" + PV_SEQ.get() + "] Queued " + priority + " request for " + vFile.getPath());
+        }
+        return queued;
+    }
+
     public Optional<FileStatus> scheduleStatusFor(@Nullable Project project, @NotNull VirtualFile vFile) {
         if (myActive.get()) {
             if (project == null) {
                 return FileStatus.EMPTY_OPTIONAL;
             } else {
-                if (myPendingFiles.add(vFile)) {
-                    myRequestQueue.add(new StatusRequest(project, vFile));
+                if (ApplicationManager.getApplication().isDispatchThread()) {
+                    myVisibleNodes.ensureInstalled();
+                }
+                if (enqueue(vFile, priorityOf(vFile))) {
                     if (LOG.isDebugEnabled()) {
-                        LOG.debug("[" + PV_SEQ.get() + "] Queued request for " + vFile.getPath());
-                        LOG.debug("[" + PV_SEQ.get() + "] Scheduling on-queued status calculation - " + myRequestQueue.size() + " requests pending");
+                        LOG.debug("[" + PV_SEQ.get() + "] Scheduling on-queued status calculation - " + myRequestQueue.getReport());
                     }
                     calculateStatus();
                 } else {
@@ -172,68 +382,215 @@ public class AsyncFileStatusCalculator extends AbstractProjectComponent implemen
         return Optional.absent();
     }
 
-    private class Task implements Runnable {
+    private ProjectViewStatus toViewStatus(FileStatus status) {
+        if (status.isUnderVcs()) {
+            if (status.getBranchName().isPresent()) {
+                return new ProjectViewStatus(status.getBranchName().get());
+            } else {
+                return ProjectViewStatus.NOT_CONFIGURED;
+            }
+        } else {
+            return ProjectViewStatus.EMPTY;
+        }
+    }
+
+    /**
+     * Capture VFS state of files under read lock. Read action gives way to pending write actions and is restarted
+     * after they complete.
+     *
+     * @return prepared files or <code>null</code> if component became inactive
+     */
+    @Nullable
+    private List<FileStatusTarget> prepareTargets(final List<VirtualFile> files) throws InterruptedException {
+        final Ref<List<FileStatusTarget>> targets = Ref.create();
+        int attempts = 0;
+        while (myActive.get()) {
+            attempts++;
+            boolean completed = ProgressIndicatorUtils.runInReadActionWithWriteActionPriority(new Runnable() {
+                @Override
+                public void run() {
+                    targets.set(myStatusCalc.prepareAll(myProject, files));
+                }
+            });
+            if (completed) {
+                if (attempts > 1 && LOG.isDebugEnabled()) {
+                    LOG.debug("[" + PV_SEQ.get() + "] Prepared " + files.size() + " files after " + attempts + " attempts");
+                }
+                return targets.get();
+            }
+            Thread.sleep(WRITE_ACTION_BACKOFF_MILLIS);
+        }
+        return null;
+    }
+
+    private void calculateBatch(List<StatusRequest> batch) throws InterruptedException {
+        List<VirtualFile> files = Lists.newArrayListWithCapacity(batch.size());
+        final Map<VirtualFile, Long> generations = Maps.newHashMapWithExpectedSize(batch.size());
+        for (StatusRequest request : batch) {
+            files.add(request.file);
+            generations.put(request.file, request.generation);
+        }
+        LogStopwatch watch = LogStopwatch.debugStopwatch(LOG, PV_SEQ,
+                new MfSupplier("Status calculation for {0} files", files.size())).start();
+        List<FileStatusTarget> targets = prepareTargets(files);
+        watch.tick("Prepared under read lock");
+        if (targets == null) {
+            watch.stop();
+            return;
+        }
+        final ProjectViewStatusCache cache = myProjectViewManager.getStatusCache();
+        //parents must be cached before children, entries arriving before their batch ancestors wait for batch end
+        final Set<VirtualFile> outstanding = Sets.newHashSet(files);
+        final Map<VirtualFile, ProjectViewStatus> deferred = Maps.newHashMap();
+        PairConsumer<VirtualFile, FileStatus> listener = new PairConsumer<VirtualFile, FileStatus>() {
+            @Override
+            public void consume(VirtualFile file, FileStatus status) {
+                outstanding.remove(file);
+                ProjectViewStatus viewStatus = toViewStatus(status);
+                Long generation = generations.get(file);
+                if (generation == null || hasOutstandingAncestor(file, outstanding)) {
+                    deferred.put(file, viewStatus);
+                } else {
+                    PutResult result = cache.add(file, viewStatus, generation);
+                    if (result != null && result.isChanged()) {
+                        //refresher coalesces nodes, view fills as statuses arrive
+                        myProjectViewManager.refreshProjectViewNodes(Collections.singletonList(file));
+                    }
+                }
+            }
+        };
+        try {
+            myStatusCalc.statusForTargets(myProject, targets, listener);
+        } finally {
+            watch.stop();
+        }
+        if (!deferred.isEmpty()) {
+            List<VirtualFile> changed = Lists.newArrayList();
+            for (Entry<VirtualFile, PutResult> result : cache.addAll(deferred, generations).entrySet()) {
+                if (result.getValue().isChanged()) {
+                    changed.add(result.getKey());
+                }
+            }
+            myProjectViewManager.refreshProjectViewNodes(changed);
+        }
+    }
+
+    private boolean hasOutstandingAncestor(VirtualFile file, Set<VirtualFile> outstanding) {
+        if (!outstanding.isEmpty()) {
+            for (VirtualFile parent = file.getParent(); parent != null; parent = parent.getParent()) {
+                if (outstanding.contains(parent)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Holds worker slot until worker completes or is cancelled, including cancellation before it ever ran.
+     * Worker pausing in Dumb-Mode hands its slot over to worker resubmitted after the pause.
+     */
+    private class WorkerTask extends FutureTask<Object> {
+        private final AtomicBoolean myReleased = new AtomicBoolean();
+        private final Worker myWorker;
+
+        private WorkerTask() {
+            this(new Worker());
+        }
+
+        private WorkerTask(Worker worker) {
+            super(worker, null);
+            myWorker = worker;
+        }
+
+        /**
+         * Give back worker slot, only first call counts.
+         *
+         * @return <code>true</code> if slot was given back by this call
+         */
+        private boolean release() {
+            if (myReleased.compareAndSet(false, true)) {
+                myActiveWorkers.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected void done() {
+            long pause = myWorker.myPauseMillis;
+            if (pause > 0 && !isCancelled() && myActive.get() && myReleased.compareAndSet(false, true)) {
+                app.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        resume();
+                    }
+                }, pause, TimeUnit.MILLISECONDS);
+                return;
+            }
+            if (release() && !isCancelled() && myRequestQueue.claimableLanes() > 0) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("[" + PV_SEQ.get() + "] Scheduling next status calculation - " + myRequestQueue.size() + " requests pending");
+                }
+                calculateStatus();
+            }
+        }
+    }
+
+    /**
+     * Submit worker for slot handed over by paused one.
+     */
+    private void resume() {
+        if (!myActive.get()) {
+            myActiveWorkers.decrementAndGet();
+        } else if (!startWorker()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("[" + PV_SEQ.get() + "] Paused status worker not resumed");
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+        //set when worker ends early to give way to indexing
+        private volatile long myPauseMillis;
 
         @Override
         public void run() {
             final boolean DEBUG = LOG.isDebugEnabled();
-            if (myCalculationInProgress.compareAndSet(false, true)) {
-                boolean exhausted = false;
-                try {
-                    StatusRequest request = myRequestQueue.poll(150, TimeUnit.MILLISECONDS);
-                    if (request != null) {
-                        if (myPendingFiles.remove(request.file)) {                                                        
-                            AccessToken token = ApplicationManager.getApplication().acquireReadActionLock();
-                            LogStopwatch watch = LogStopwatch.debugStopwatch(LOG, PV_SEQ, 
-                                    new MfSupplier("Status calculation for {0}", request.file)).start();
-                            FileStatus status;
-                            try {                                                                                                 
-                                status = myStatusCalc.statusFor(request.project, request.file);                                                                                                
-                            } finally {
-                                token.finish();
-                                watch.stop();
-                            }
-                            ProjectViewStatus viewStatus;
-                            if (status.isUnderVcs()) {
-                                if (status.getBranchName().isPresent()) {
-                                    viewStatus = new ProjectViewStatus(status.getBranchName().get());
-                                } else {
-                                    viewStatus = ProjectViewStatus.NOT_CONFIGURED;
-                                }
-                            } else {
-                                viewStatus = ProjectViewStatus.EMPTY;    
-                            }
-                            ProjectViewStatusCache cache = myProjectViewManager.getStatusCache();
-                            cache.add(request.file, viewStatus);
-                        } else {
-                            if (DEBUG) {
-                                LOG.debug("[" + PV_SEQ.get() + "] " + request.file.getPath() + " was already calculated");
-                            }
+            int batches = 0;
+            try {
+                while (batches < BATCHES_PER_TASK && myActive.get()) {
+                    //checked per batch so workers started before indexing began slow down too
+                    boolean dumb = DumbService.isDumb(myProject);
+                    if (dumb && myActiveWorkers.get() > DUMB_MODE_WORKERS) {
+                        if (DEBUG) {
+                            LOG.debug("[" + PV_SEQ.get() + "] Dumb-Mode, status worker steps down");
                         }
-                    } else {
+                        break;
+                    }
+                    int batchSize = dumb ? DUMB_MODE_BATCH_SIZE : BATCH_SIZE;
+                    List<StatusRequest> batch = myRequestQueue.claim(batchSize, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (batch == null) {
                         if (DEBUG) {
                             LOG.debug("[" + PV_SEQ.get() + "] Requests exhausted");
                         }
-                        exhausted = true;
+                        break;
                     }
-                } catch (InterruptedException e) {
-                    LOG.error(e);
-                } finally {
-                    if (myCalculationInProgress.compareAndSet(true, false)) {
-                        if (exhausted) {
-                            refreshView();
-                        } else {
-                            if (DEBUG) {
-                                LOG.debug("[" + PV_SEQ.get() + "] Scheduling next status calculation - " + myRequestQueue.size() + " requests pending");
-                            }
-                            calculateStatus();
-                        }
+                    long batchStart = System.currentTimeMillis();
+                    try {
+                        calculateBatch(batch);
+                    } finally {
+                        myRequestQueue.release(batch.get(0).root);
+                    }
+                    batches++;
+                    if (dumb) {
+                        //yield cpu and disk to indexing, thread priorities are ignored on most platforms
+                        myPauseMillis = Math.max(DUMB_MODE_PAUSE_MILLIS, System.currentTimeMillis() - batchStart);
+                        break;
                     }
                 }
-            } else {
-                if (DEBUG) {
-                    LOG.debug("[" + PV_SEQ.get() + "] Another status calculation in progress");
-                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
     }
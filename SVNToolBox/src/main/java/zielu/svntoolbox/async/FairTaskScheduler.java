@@ -0,0 +1,382 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.async;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intellij.openapi.diagnostic.Logger;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>Fixed size pool of worker threads shared fairly between task owners (projects).</p>
+ * <p>Each owner has its own FIFO queue and workers take tasks from owners in round-robin order,
+ * so busy owner cannot starve others. All tasks of owner can be cancelled at once.</p>
+ * <p>Running tasks cannot be taken back, so owner may run at most its share of threads at once -
+ * number of threads divided by number of owners having queued or running tasks, but at least one.
+ * Threads above the share are left to owners that come later.</p>
+ * <p>Cancelling queued task that is itself a {@link Future} cancels it as well, so its completion handling runs
+ * even though it never ran.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+public class FairTaskScheduler {
+    private final Logger LOG = Logger.getInstance(getClass());
+
+    private final ReentrantLock myLock = new ReentrantLock();
+    private final Condition myTaskAvailable = myLock.newCondition();
+    private final Map<Object, Deque<OwnedTask>> myQueues = Maps.newLinkedHashMap();
+    private final Map<Object, OwnerCounts> myCounts = Maps.newHashMap();
+    private final Deque<Object> myReadyOwners = new ArrayDeque<Object>();
+    private final Set<OwnedTask> myRunning = Sets.newHashSet();
+    private final List<Thread> myThreads;
+    private final int myThreadCount;
+
+    private boolean myShutdown;
+    private int myQueuedCount;
+    private long myCompletedCount;
+
+    public FairTaskScheduler(@NotNull String name, int threads) {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat(name + "-%s")
+                .setPriority(Thread.NORM_PRIORITY)
+                .build();
+        myThreadCount = threads;
+        myThreads = Lists.newArrayListWithCapacity(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread thread = threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    workLoop();
+                }
+            });
+            myThreads.add(thread);
+            thread.start();
+        }
+    }
+
+    private static class OwnedTask extends FutureTask<Object> {
+        private final Object owner;
+        private final Runnable task;
+        //counts at the time of submission, cancelled owner submitting again starts with fresh ones
+        private final OwnerCounts counts;
+
+        private OwnedTask(Object owner, Runnable task, OwnerCounts counts) {
+            super(task, null);
+            this.owner = owner;
+            this.task = task;
+            this.counts = counts;
+        }
+
+        @Override
+        protected void done() {
+            //task that is a future itself would never complete if cancelled before it ran
+            if (isCancelled() && task instanceof Future) {
+                ((Future<?>) task).cancel(false);
+            }
+        }
+    }
+
+    private static class OwnerCounts {
+        private int active;
+        private int queued;
+        private long completed;
+    }
+
+    private OwnerCounts countsOf(Object owner) {
+        OwnerCounts counts = myCounts.get(owner);
+        if (counts == null) {
+            counts = new OwnerCounts();
+            myCounts.put(owner, counts);
+        }
+        return counts;
+    }
+
+    /**
+     * Submit task on behalf of owner.
+     *
+     * @param owner owner used for fair sharing and cancellation, usually project
+     * @param task  task to run
+     * @return future of the task, cancelled right away if scheduler is shut down
+     */
+    public Future<?> submit(@NotNull Object owner, @NotNull Runnable task) {
+        OwnedTask ownedTask;
+        myLock.lock();
+        try {
+            if (myShutdown) {
+                ownedTask = new OwnedTask(owner, task, new OwnerCounts());
+                ownedTask.cancel(false);
+                return ownedTask;
+            }
+            ownedTask = new OwnedTask(owner, task, countsOf(owner));
+            Deque<OwnedTask> queue = myQueues.get(owner);
+            if (queue == null) {
+                queue = new ArrayDeque<OwnedTask>();
+                myQueues.put(owner, queue);
+            }
+            if (queue.isEmpty()) {
+                myReadyOwners.addLast(owner);
+            }
+            queue.addLast(ownedTask);
+            myQueuedCount++;
+            ownedTask.counts.queued++;
+            myTaskAvailable.signal();
+        } finally {
+            myLock.unlock();
+        }
+        return ownedTask;
+    }
+
+    /**
+     * Cancel queued tasks of owner and interrupt its running tasks. Counts of owner are forgotten.
+     *
+     * @param owner owner to cancel tasks of
+     * @return number of cancelled tasks
+     */
+    public int cancel(@NotNull Object owner) {
+        int cancelled = 0;
+        myLock.lock();
+        try {
+            Deque<OwnedTask> queue = myQueues.remove(owner);
+            if (queue != null) {
+                myReadyOwners.remove(owner);
+                for (OwnedTask task : queue) {
+                    task.cancel(false);
+                    cancelled++;
+                }
+                myQueuedCount -= queue.size();
+            }
+            myCounts.remove(owner);
+            for (OwnedTask task : myRunning) {
+                if (task.owner.equals(owner)) {
+                    task.cancel(true);
+                    cancelled++;
+                }
+            }
+        } finally {
+            myLock.unlock();
+        }
+        if (cancelled > 0 && LOG.isDebugEnabled()) {
+            LOG.debug("Cancelled " + cancelled + " tasks of " + owner + ", " + getReport());
+        }
+        return cancelled;
+    }
+
+    private OwnedTask take() throws InterruptedException {
+        myLock.lockInterruptibly();
+        try {
+            Object owner = pollEligibleOwner();
+            while (owner == null) {
+                if (myShutdown) {
+                    return null;
+                }
+                myTaskAvailable.await();
+                owner = pollEligibleOwner();
+            }
+            Deque<OwnedTask> queue = myQueues.get(owner);
+            OwnedTask task = queue.pollFirst();
+            myQueuedCount--;
+            task.counts.queued--;
+            task.counts.active++;
+            if (queue.isEmpty()) {
+                myQueues.remove(owner);
+            } else {
+                //owner goes to the back of the line
+                myReadyOwners.addLast(owner);
+            }
+            myRunning.add(task);
+            return task;
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    /**
+     * Take first ready owner running less than its share of threads. Must be called under lock.
+     */
+    private Object pollEligibleOwner() {
+        if (myReadyOwners.isEmpty()) {
+            return null;
+        }
+        int busyOwners = 0;
+        for (OwnerCounts counts : myCounts.values()) {
+            if (counts.active > 0 || counts.queued > 0) {
+                busyOwners++;
+            }
+        }
+        int share = Math.max(1, myThreadCount / Math.max(1, busyOwners));
+        for (Iterator<Object> owners = myReadyOwners.iterator(); owners.hasNext(); ) {
+            Object owner = owners.next();
+            if (countsOf(owner).active < share) {
+                owners.remove();
+                return owner;
+            }
+        }
+        return null;
+    }
+
+    private void workLoop() {
+        try {
+            OwnedTask task = take();
+            while (task != null) {
+                try {
+                    task.run();
+                } finally {
+                    //clear interruption from cancellation so it does not leak into next task
+                    Thread.interrupted();
+                    myLock.lock();
+                    try {
+                        myRunning.remove(task);
+                        myCompletedCount++;
+                        //counts of cancelled owner are no longer reported, updating them is harmless
+                        task.counts.active--;
+                        task.counts.completed++;
+                        //owner may fit in its share again and shares grow as owners run out of tasks
+                        myTaskAvailable.signalAll();
+                    } finally {
+                        myLock.unlock();
+                    }
+                }
+                task = take();
+            }
+        } catch (InterruptedException e) {
+            //shutting down
+        }
+    }
+
+    /**
+     * @return number of running tasks
+     */
+    public int getActiveCount() {
+        myLock.lock();
+        try {
+            return myRunning.size();
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    public int getQueuedCount() {
+        myLock.lock();
+        try {
+            return myQueuedCount;
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    public long getCompletedCount() {
+        myLock.lock();
+        try {
+            return myCompletedCount;
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    /**
+     * @return number of running tasks of owner
+     */
+    public int getActiveCount(@NotNull Object owner) {
+        myLock.lock();
+        try {
+            OwnerCounts counts = myCounts.get(owner);
+            return counts != null ? counts.active : 0;
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    /**
+     * @return number of tasks of owner waiting for a thread
+     */
+    public int getQueuedCount(@NotNull Object owner) {
+        myLock.lock();
+        try {
+            OwnerCounts counts = myCounts.get(owner);
+            return counts != null ? counts.queued : 0;
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    /**
+     * @return number of tasks of owner completed since it was last cancelled
+     */
+    public long getCompletedCount(@NotNull Object owner) {
+        myLock.lock();
+        try {
+            OwnerCounts counts = myCounts.get(owner);
+            return counts != null ? counts.completed : 0;
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    /**
+     * @return active, queued and completed task counts of owner
+     */
+    public String getReport(@NotNull Object owner) {
+        myLock.lock();
+        try {
+            OwnerCounts counts = myCounts.get(owner);
+            if (counts == null) {
+                return "active=0, queued=0, completed=0";
+            }
+            return "active=" + counts.active + ", queued=" + counts.queued + ", completed=" + counts.completed;
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    public String getReport() {
+        myLock.lock();
+        try {
+            return "threads=" + myThreadCount + ", active=" + myRunning.size() + ", queued=" + myQueuedCount
+                    + ", completed=" + myCompletedCount + ", owners=" + myQueues.size();
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    public void shutdownNow() {
+        myLock.lock();
+        try {
+            myShutdown = true;
+            for (Deque<OwnedTask> queue : myQueues.values()) {
+                for (OwnedTask task : queue) {
+                    task.cancel(false);
+                }
+            }
+            myQueues.clear();
+            myReadyOwners.clear();
+            myCounts.clear();
+            myQueuedCount = 0;
+            for (OwnedTask task : myRunning) {
+                task.cancel(true);
+            }
+            myTaskAvailable.signalAll();
+        } finally {
+            myLock.unlock();
+        }
+        for (Thread thread : myThreads) {
+            thread.interrupt();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/* 
+ * $Id$
+ */
+package zielu.svntoolbox.async;
+
+/**
+ * <p>Order in which status requests are served, most urgent first.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+public enum RequestPriority {
+    /**
+     * File shown in status bar i.e. selected in editor
+     */
+    StatusBar,
+    /**
+     * File of Project View node inside visible part of the tree
+     */
+    Visible,
+    /**
+     * Module, content and source roots computed ahead of first Project View paint
+     */
+    WarmUp,
+    /**
+     * Everything else
+     */
+    Background
+}
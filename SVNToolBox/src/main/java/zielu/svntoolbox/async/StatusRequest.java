@@ -3,8 +3,8 @@
  */
 package zielu.svntoolbox.async;
 
-import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * <p></p>
@@ -14,11 +14,43 @@ import com.intellij.openapi.vfs.VirtualFile;
  * @author Lukasz Zielinski
  */
 public class StatusRequest {
-    public final Project project;
     public final VirtualFile file;
+    /**
+     * Working copy root of file, <code>null</code> if file is outside any known working copy
+     */
+    @Nullable
+    public final VirtualFile root;
+    public final RequestPriority priority;
+    /**
+     * Generation of working copy root at the time request was made
+     */
+    public final long generation;
+    public final int depth;
+    final long sequence;
 
-    public StatusRequest(Project project, VirtualFile file) {
-        this.project = project;
+    StatusRequest(VirtualFile file, @Nullable VirtualFile root, RequestPriority priority, long generation, int depth,
+                  long sequence) {
         this.file = file;
+        this.root = root;
+        this.priority = priority;
+        this.generation = generation;
+        this.depth = depth;
+        this.sequence = sequence;
+    }
+
+    StatusRequest withPriority(RequestPriority newPriority, long newSequence) {
+        return new StatusRequest(file, root, newPriority, generation, depth, newSequence);
+    }
+
+    StatusRequest withGeneration(long newGeneration) {
+        return new StatusRequest(file, root, priority, newGeneration, depth, sequence);
+    }
+
+    static int depthOf(VirtualFile file) {
+        int depth = 0;
+        for (VirtualFile current = file.getParent(); current != null; current = current.getParent()) {
+            depth++;
+        }
+        return depth;
     }
 }
@@ -0,0 +1,449 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.async;
+
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>Bounded priority queue of status requests with at most one request per file.</p>
+ * <p>Requests are served by priority, then shallow before deep, then in order of arrival.
+ * Queued requests can be re-prioritized or cancelled.</p>
+ * <p>When capacity is reached lowest priority requests are shed first and among them the oldest ones.
+ * New request is shed instead if everything queued is more urgent. Shed requests are remembered and put back
+ * once queue drains below half of its capacity, so files waiting for them keep their pending markers
+ * and are not requested over and over. Only requests that do not fit among remembered ones are forgotten.</p>
+ * <p>Requests are partitioned into lanes by working copy root. Lane is claimed by single worker at a time,
+ * so each working copy is accessed serially while different working copies are processed in parallel.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+class StatusRequestQueue {
+    private static final Comparator<StatusRequest> ORDER = new Comparator<StatusRequest>() {
+        @Override
+        public int compare(StatusRequest first, StatusRequest second) {
+            return ComparisonChain.start()
+                    .compare(first.priority, second.priority)
+                    .compare(first.depth, second.depth)
+                    .compare(first.sequence, second.sequence)
+                    .result();
+        }
+    };
+
+    private static final Comparator<StatusRequest> SHED_ORDER = new Comparator<StatusRequest>() {
+        @Override
+        public int compare(StatusRequest first, StatusRequest second) {
+            return ComparisonChain.start()
+                    .compare(second.priority, first.priority)
+                    .compare(first.sequence, second.sequence)
+                    .result();
+        }
+    };
+
+    private final int myCapacity;
+    private final DropListener myDropListener;
+
+    //null key holds requests for files outside known working copies
+    private final Map<VirtualFile, Lane> myLanes = Maps.newHashMap();
+    private final Map<VirtualFile, StatusRequest> myQueued = Maps.newHashMap();
+    private final NavigableSet<StatusRequest> myShedOrder = new TreeSet<StatusRequest>(SHED_ORDER);
+    //requests shed due to capacity limit in order of shedding, bounded by capacity
+    private final Map<VirtualFile, StatusRequest> myShed = Maps.newLinkedHashMap();
+    private final List<VirtualFile> myForgotten = Lists.newArrayList();
+    private final ReentrantLock myLock = new ReentrantLock();
+    private final Condition myClaimable = myLock.newCondition();
+    private long mySequence;
+    private long myDropped;
+    private int myPeakSize;
+
+    private final int myLowWatermark;
+
+    StatusRequestQueue(int capacity, @NotNull DropListener dropListener) {
+        myCapacity = capacity;
+        myLowWatermark = capacity / 2;
+        myDropListener = dropListener;
+    }
+
+    interface DropListener {
+        /**
+         * Called outside of queue lock for each shed request that was forgotten because too many were shed.
+         */
+        void dropped(@NotNull VirtualFile file);
+    }
+
+    private static class Lane {
+        private final NavigableSet<StatusRequest> requests = new TreeSet<StatusRequest>(ORDER);
+        private boolean busy;
+    }
+
+    /**
+     * Queue request for file. If file is already queued with lower priority it is promoted,
+     * if it was queued against other root generation its generation is updated.
+     *
+     * @param root       working copy root of file, <code>null</code> if unknown
+     * @param generation current generation of root
+     * @return <code>true</code> if file was not queued before and request was not shed right away
+     */
+    boolean add(@NotNull VirtualFile file, @Nullable VirtualFile root, long generation, @NotNull RequestPriority priority) {
+        List<VirtualFile> forgotten;
+        myLock.lock();
+        try {
+            StatusRequest existing = myQueued.get(file);
+            if (existing != null) {
+                StatusRequest updated = existing;
+                if (updated.generation != generation) {
+                    updated = updated.withGeneration(generation);
+                }
+                if (priority.compareTo(updated.priority) < 0) {
+                    updated = updated.withPriority(priority, mySequence++);
+                }
+                if (updated != existing) {
+                    replace(existing, updated);
+                }
+                return false;
+            }
+            //new request supersedes shed one
+            myShed.remove(file);
+            return offer(new StatusRequest(file, root, priority, generation, StatusRequest.depthOf(file), mySequence++));
+        } finally {
+            forgotten = takeForgotten();
+            myLock.unlock();
+            notifyForgotten(forgotten);
+        }
+    }
+
+    /**
+     * Queue request, shedding least urgent one if queue is full. Must be called under lock.
+     *
+     * @return <code>true</code> if request was queued, <code>false</code> if it was shed itself
+     */
+    private boolean offer(StatusRequest request) {
+        if (myQueued.size() >= myCapacity) {
+            myDropped++;
+            StatusRequest victim = myShedOrder.first();
+            if (victim.priority.compareTo(request.priority) < 0) {
+                shed(request);
+                return false;
+            }
+            remove(victim);
+            shed(victim);
+        }
+        enqueue(request);
+        return true;
+    }
+
+    private void enqueue(StatusRequest request) {
+        Lane lane = myLanes.get(request.root);
+        if (lane == null) {
+            lane = new Lane();
+            myLanes.put(request.root, lane);
+        }
+        lane.requests.add(request);
+        myQueued.put(request.file, request);
+        myShedOrder.add(request);
+        myPeakSize = Math.max(myPeakSize, myQueued.size());
+        if (!lane.busy) {
+            myClaimable.signal();
+        }
+    }
+
+    private void shed(StatusRequest request) {
+        myShed.put(request.file, request);
+        if (myShed.size() > myCapacity) {
+            Iterator<StatusRequest> oldest = myShed.values().iterator();
+            myForgotten.add(oldest.next().file);
+            oldest.remove();
+        }
+    }
+
+    /**
+     * Put shed requests back, oldest first, when queue drained below low watermark. Must be called under lock.
+     */
+    private void refill() {
+        if (myQueued.size() < myLowWatermark && !myShed.isEmpty()) {
+            Iterator<StatusRequest> shed = myShed.values().iterator();
+            while (shed.hasNext() && myQueued.size() < myLowWatermark) {
+                StatusRequest request = shed.next();
+                shed.remove();
+                enqueue(request.withPriority(request.priority, mySequence++));
+            }
+        }
+    }
+
+    private List<VirtualFile> takeForgotten() {
+        if (myForgotten.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<VirtualFile> forgotten = Lists.newArrayList(myForgotten);
+        myForgotten.clear();
+        return forgotten;
+    }
+
+    private void notifyForgotten(List<VirtualFile> forgotten) {
+        for (VirtualFile file : forgotten) {
+            myDropListener.dropped(file);
+        }
+    }
+
+    private void replace(StatusRequest existing, StatusRequest replacement) {
+        NavigableSet<StatusRequest> requests = myLanes.get(existing.root).requests;
+        requests.remove(existing);
+        requests.add(replacement);
+        myShedOrder.remove(existing);
+        myShedOrder.add(replacement);
+        myQueued.put(replacement.file, replacement);
+    }
+
+    private void remove(StatusRequest request) {
+        Lane lane = myLanes.get(request.root);
+        lane.requests.remove(request);
+        if (!lane.busy && lane.requests.isEmpty()) {
+            myLanes.remove(request.root);
+        }
+        myShedOrder.remove(request);
+        myQueued.remove(request.file);
+    }
+
+    /**
+     * Promote already queued or shed files to given priority.
+     * Promoted shed requests are queued again, possibly shedding less urgent ones.
+     *
+     * @return number of promoted requests
+     */
+    int prioritize(@NotNull Collection<VirtualFile> files, @NotNull RequestPriority priority) {
+        int promoted = 0;
+        List<VirtualFile> forgotten;
+        myLock.lock();
+        try {
+            for (VirtualFile file : files) {
+                StatusRequest existing = myQueued.get(file);
+                if (existing != null) {
+                    if (priority.compareTo(existing.priority) < 0) {
+                        replace(existing, existing.withPriority(priority, mySequence++));
+                        promoted++;
+                    }
+                } else {
+                    StatusRequest shed = myShed.get(file);
+                    if (shed != null && priority.compareTo(shed.priority) < 0) {
+                        myShed.remove(file);
+                        offer(shed.withPriority(priority, mySequence++));
+                        promoted++;
+                    }
+                }
+            }
+        } finally {
+            forgotten = takeForgotten();
+            myLock.unlock();
+            notifyForgotten(forgotten);
+        }
+        return promoted;
+    }
+
+    /**
+     * Cancel requests for all files under given directory.
+     *
+     * @return files whose requests were cancelled
+     */
+    List<VirtualFile> cancelUnder(@NotNull VirtualFile directory) {
+        List<VirtualFile> cancelled = Lists.newArrayList();
+        myLock.lock();
+        try {
+            for (Lane lane : myLanes.values()) {
+                for (Iterator<StatusRequest> it = lane.requests.iterator(); it.hasNext(); ) {
+                    StatusRequest request = it.next();
+                    if (VfsUtilCore.isAncestor(directory, request.file, true)) {
+                        it.remove();
+                        myShedOrder.remove(request);
+                        myQueued.remove(request.file);
+                        cancelled.add(request.file);
+                    }
+                }
+            }
+            for (Iterator<StatusRequest> it = myShed.values().iterator(); it.hasNext(); ) {
+                StatusRequest request = it.next();
+                if (VfsUtilCore.isAncestor(directory, request.file, true)) {
+                    it.remove();
+                    cancelled.add(request.file);
+                }
+            }
+            removeIdleLanes();
+            refill();
+        } finally {
+            myLock.unlock();
+        }
+        return cancelled;
+    }
+
+    private void removeIdleLanes() {
+        for (Iterator<Lane> it = myLanes.values().iterator(); it.hasNext(); ) {
+            Lane lane = it.next();
+            if (!lane.busy && lane.requests.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    @Nullable
+    private Entry<VirtualFile, Lane> bestClaimable() {
+        Entry<VirtualFile, Lane> best = null;
+        for (Entry<VirtualFile, Lane> entry : myLanes.entrySet()) {
+            Lane lane = entry.getValue();
+            if (!lane.busy && !lane.requests.isEmpty()) {
+                if (best == null || ORDER.compare(lane.requests.first(), best.getValue().requests.first()) < 0) {
+                    best = entry;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Claim lane with most urgent request and take batch of its requests.
+     * Claimed lane must be released with {@link #release(VirtualFile)} once batch is processed.
+     *
+     * @return requests of single working copy root or <code>null</code> if no lane became available before timeout
+     */
+    @Nullable
+    List<StatusRequest> claim(int maxElements, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        myLock.lockInterruptibly();
+        try {
+            Entry<VirtualFile, Lane> best = bestClaimable();
+            while (best == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = myClaimable.awaitNanos(nanos);
+                best = bestClaimable();
+            }
+            Lane lane = best.getValue();
+            lane.busy = true;
+            List<StatusRequest> batch = Lists.newArrayListWithCapacity(Math.min(maxElements, lane.requests.size()));
+            while (batch.size() < maxElements && !lane.requests.isEmpty()) {
+                StatusRequest request = lane.requests.pollFirst();
+                myShedOrder.remove(request);
+                myQueued.remove(request.file);
+                batch.add(request);
+            }
+            refill();
+            return batch;
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    void release(@Nullable VirtualFile root) {
+        myLock.lock();
+        try {
+            Lane lane = myLanes.get(root);
+            if (lane != null) {
+                lane.busy = false;
+                if (lane.requests.isEmpty()) {
+                    myLanes.remove(root);
+                } else {
+                    myClaimable.signal();
+                }
+            }
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    /**
+     * @return number of lanes with queued requests not claimed by any worker
+     */
+    int claimableLanes() {
+        myLock.lock();
+        try {
+            int claimable = 0;
+            for (Lane lane : myLanes.values()) {
+                if (!lane.busy && !lane.requests.isEmpty()) {
+                    claimable++;
+                }
+            }
+            return claimable;
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    boolean contains(@NotNull VirtualFile file) {
+        myLock.lock();
+        try {
+            return myQueued.containsKey(file);
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    int size() {
+        myLock.lock();
+        try {
+            return myQueued.size();
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return queue depth, peak depth, number of remembered shed requests and number of shedding events
+     */
+    String getReport() {
+        myLock.lock();
+        try {
+            return "depth=" + myQueued.size() + ", peak=" + myPeakSize + ", capacity=" + myCapacity + ", shed=" + myShed.size()
+                    + ", dropped=" + myDropped;
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    long getDroppedCount() {
+        myLock.lock();
+        try {
+            return myDropped;
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    void clear() {
+        myLock.lock();
+        try {
+            for (Lane lane : myLanes.values()) {
+                lane.requests.clear();
+            }
+            removeIdleLanes();
+            myShedOrder.clear();
+            myQueued.clear();
+            myShed.clear();
+            myForgotten.clear();
+        } finally {
+            myLock.unlock();
+        }
+    }
+}
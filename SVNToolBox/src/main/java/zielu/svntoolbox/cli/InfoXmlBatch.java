@@ -0,0 +1,219 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.cli;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.CharStreams;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import zielu.svntoolbox.SvnToolBoxApp;
+
+/**
+ * <p>Runs single <code>svn info --xml</code> for many targets and streams parsed entries.</p>
+ * <p>Each entry is passed to consumer as soon as its closing tag is read, without waiting for process to finish.
+ * Targets are split into chunks to keep command line length under control.</p>
+ * <p>Svn runs with configuration directory of IDE Svn settings, so it uses the same authentication cache and proxy
+ * settings as svn4idea. Chunk that does not complete in time is killed.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+public class InfoXmlBatch {
+    private static final Logger LOG = Logger.getInstance(InfoXmlBatch.class);
+    private static final int MAX_TARGETS = 200;
+    private static final long CHUNK_TIMEOUT_SECONDS = 60;
+    private static final long EXIT_TIMEOUT_SECONDS = 5;
+
+    private final String mySvnPath;
+    @Nullable
+    private final String myConfigDir;
+
+    public InfoXmlBatch(@NotNull String svnPath, @Nullable String configDir) {
+        mySvnPath = svnPath;
+        myConfigDir = configDir;
+    }
+
+    public interface EntryConsumer {
+        void consume(@NotNull File file, @NotNull SVNURL url);
+    }
+
+    /**
+     * Run info for all targets.
+     *
+     * @param workingDir directory to run svn in
+     * @param targets    files to get info for
+     * @param consumer   receives entries as they arrive
+     * @return targets of chunks whose output was read completely - those without entry are not versioned,
+     * info of other targets is unknown
+     */
+    public Set<File> run(@NotNull File workingDir, @NotNull Collection<File> targets, @NotNull EntryConsumer consumer) {
+        Set<File> completed = Sets.newHashSet();
+        for (List<File> chunk : Iterables.partition(targets, MAX_TARGETS)) {
+            if (runChunk(workingDir, chunk, consumer)) {
+                completed.addAll(chunk);
+            }
+        }
+        return completed;
+    }
+
+    private static String key(String path) {
+        return FileUtil.toSystemIndependentName(path);
+    }
+
+    private boolean runChunk(File workingDir, List<File> chunk, EntryConsumer consumer) {
+        Map<String, File> byPath = Maps.newHashMapWithExpectedSize(chunk.size());
+        List<String> command = Lists.newArrayListWithCapacity(chunk.size() + 6);
+        command.add(mySvnPath);
+        command.add("info");
+        command.add("--xml");
+        command.add("--non-interactive");
+        if (myConfigDir != null) {
+            command.add("--config-dir");
+            command.add(myConfigDir);
+        }
+        for (File target : chunk) {
+            String path = target.getAbsolutePath();
+            byPath.put(key(path), target);
+            //escape peg revision syntax in file names
+            command.add(path.indexOf('@') >= 0 ? path + "@" : path);
+        }
+        Process process = null;
+        ScheduledFuture<?> watchdog = null;
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        boolean completed = false;
+        try {
+            final Process started = new ProcessBuilder(command).directory(workingDir).start();
+            process = started;
+            watchdog = SvnToolBoxApp.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timedOut.set(true);
+                    started.destroy();
+                }
+            }, CHUNK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            drainErrors(process.getErrorStream());
+            int parsed = parse(process.getInputStream(), byPath, consumer);
+            if (process.waitFor(EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                //non-zero exit code only tells some targets are not versioned
+                completed = !timedOut.get();
+                if (process.exitValue() != 0 && LOG.isDebugEnabled()) {
+                    LOG.debug("svn info exited with " + process.exitValue() + ", parsed " + parsed + " of " + chunk.size() + " entries");
+                }
+            }
+            if (timedOut.get()) {
+                LOG.warn("svn info did not complete in " + CHUNK_TIMEOUT_SECONDS + "s in " + workingDir + ", parsed "
+                        + parsed + " of " + chunk.size() + " entries");
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not run svn info in " + workingDir, e);
+        } catch (XMLStreamException e) {
+            if (timedOut.get()) {
+                LOG.warn("svn info did not complete in " + CHUNK_TIMEOUT_SECONDS + "s in " + workingDir);
+            } else {
+                LOG.warn("Could not parse svn info output in " + workingDir, e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+            if (process != null) {
+                process.destroy();
+            }
+        }
+        return completed;
+    }
+
+    private void drainErrors(final InputStream errors) {
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String output = CharStreams.toString(new InputStreamReader(errors, StandardCharsets.UTF_8));
+                    if (!output.isEmpty() && LOG.isDebugEnabled()) {
+                        LOG.debug("svn info errors: " + output);
+                    }
+                } catch (IOException e) {
+                    LOG.debug("Could not read svn info errors", e);
+                }
+            }
+        });
+    }
+
+    private int parse(InputStream output, Map<String, File> byPath, EntryConsumer consumer) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XMLStreamReader reader = factory.createXMLStreamReader(output, "UTF-8");
+        int parsed = 0;
+        try {
+            String entryPath = null;
+            String url = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("entry".equals(name)) {
+                        entryPath = reader.getAttributeValue(null, "path");
+                        url = null;
+                    } else if ("url".equals(name) && entryPath != null) {
+                        url = reader.getElementText();
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "entry".equals(reader.getLocalName())) {
+                    if (publish(entryPath, url, byPath, consumer)) {
+                        parsed++;
+                    }
+                    entryPath = null;
+                    url = null;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return parsed;
+    }
+
+    private boolean publish(@Nullable String entryPath, @Nullable String url, Map<String, File> byPath, EntryConsumer consumer) {
+        if (entryPath != null && url != null) {
+            File file = byPath.get(key(entryPath));
+            if (file == null) {
+                file = byPath.get(key(new File(entryPath).getAbsolutePath()));
+            }
+            if (file != null) {
+                try {
+                    consumer.consume(file, SVNURL.parseURIEncoded(url));
+                    return true;
+                } catch (SVNException e) {
+                    LOG.warn("Invalid url for " + entryPath + ": " + url, e);
+                }
+            }
+        }
+        return false;
+    }
+}
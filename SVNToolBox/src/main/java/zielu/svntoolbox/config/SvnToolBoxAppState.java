@@ -45,6 +45,32 @@ public class SvnToolBoxAppState implements PersistentStateComponent<SvnToolBoxAp
     public int darkG = 107;
     public int darkB = 0;
 
+    public boolean readWcDbDirectly = true;
+    /**
+     * Max number of concurrent status workers per project, non-positive value selects number of processors
+     */
+    public int statusWorkers;
+    /**
+     * Number of threads shared by all projects, non-positive value selects number of processors
+     */
+    public int schedulerThreads;
+    /**
+     * Time window in which Project View node updates are coalesced
+     */
+    public int projectViewRefreshMillis = 300;
+    /**
+     * Max number of status requests queued per project, lowest priority requests are dropped above it
+     */
+    public int statusQueueCapacity = 10000;
+    /**
+     * Max number of statuses cached per project, least recently used ones are evicted above it
+     */
+    public int statusCacheCapacity = 200000;
+    /**
+     * Keep final statuses on disk between sessions
+     */
+    public boolean persistStatusCache = true;
+
     private String fileCsv;
 
     @Transient
@@ -72,6 +98,39 @@ public class SvnToolBoxAppState implements PersistentStateComponent<SvnToolBoxAp
         return !currentValue.equalsIgnoreCase(csvFile);
     }
 
+    @Transient
+    public int getStatusWorkerCount() {
+        if (statusWorkers > 0) {
+            return statusWorkers;
+        } else {
+            return Math.max(1, Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    @Transient
+    public int getSchedulerThreadCount() {
+        if (schedulerThreads > 0) {
+            return schedulerThreads;
+        } else {
+            return Math.max(2, Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    @Transient
+    public int getStatusQueueCapacity() {
+        return Math.max(100, statusQueueCapacity);
+    }
+
+    @Transient
+    public int getStatusCacheCapacity() {
+        return Math.max(1000, statusCacheCapacity);
+    }
+
+    @Transient
+    public int getProjectViewRefreshMillis() {
+        return Math.max(0, projectViewRefreshMillis);
+    }
+
     @Transient
     public Color getCurrentRegularDecorationColor() {
         if (customRegularColor) {
@@ -0,0 +1,525 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.projectView;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.persistent.FSRecords;
+import com.intellij.util.containers.ConcurrentIntObjectMap;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.io.ByteBufferUtil;
+import gnu.trove.TIntObjectHashMap;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import zielu.svntoolbox.SvnToolBoxApp;
+import zielu.svntoolbox.wc.WcDbReader;
+
+/**
+ * <p>On-disk copy of final statuses of a project kept between IDE sessions.</p>
+ * <p>Statuses are keyed by VirtualFile id, which is stable as long as VFS is not rebuilt, so whole file is discarded
+ * when VFS creation time differs from the saved one. Neither saving nor loading needs paths of files.</p>
+ * <p>File is memory mapped on open and only its header listing working copy roots is read.
+ * Section of root is validated and decoded on background thread once cache first touches the root - section is used
+ * only if root <code>wc.db</code> still has the same modification time and length as when statuses were saved.
+ * Mapping is released explicitly once all sections are copied out and before file is replaced.
+ * Lookups are lock free probes of a single id keyed map that do not touch file system and do not allocate.
+ * Lookups made before section is loaded just miss.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+class PersistentStatusStore {
+    private static final int MAGIC = 0x53544243;
+    private static final int VERSION = 2;
+    private static final int EMPTY_STATUS = -1;
+    private static final int NOT_CONFIGURED_STATUS = -2;
+
+    private final Logger LOG = Logger.getInstance(getClass());
+
+    private final Project myProject;
+    private final File myFile;
+    private final Object myLock = new Object();
+    private final Map<VirtualFile, Section> mySections = new ConcurrentHashMap<VirtualFile, Section>();
+    //saved statuses of loaded sections not restored or forgotten yet, keyed by file id
+    private final ConcurrentIntObjectMap<ProjectViewStatus> myLoaded = ContainerUtil.createConcurrentIntObjectMap();
+    //guarded by myLock
+    private ByteBuffer myBuffer;
+
+    PersistentStatusStore(@NotNull Project project, @NotNull File file) {
+        myProject = project;
+        myFile = file;
+    }
+
+    static PersistentStatusStore forProject(@NotNull Project project) {
+        File dir = new File(PathManager.getSystemPath(), "svntoolbox" + File.separator + "status-cache");
+        return new PersistentStatusStore(project, new File(dir, project.getLocationHash() + ".dat"));
+    }
+
+    private static class Section {
+        private final String rootPath;
+        private final long dbModified;
+        private final long dbLength;
+        private final int offset;
+        private final int length;
+        private final AtomicBoolean loadRequested = new AtomicBoolean();
+        //resolved before section is published
+        private VirtualFile root;
+        //guarded by myLock, set once section bytes no longer need mapping
+        private boolean copied;
+        //set once section is loaded
+        private volatile int[] ids;
+        private volatile boolean discarded;
+
+        private Section(String rootPath, long dbModified, long dbLength, int offset, int length) {
+            this.rootPath = rootPath;
+            this.dbModified = dbModified;
+            this.dbLength = dbLength;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private boolean isCurrent() {
+            File dbFile = WcDbReader.getDbFile(new File(rootPath));
+            return dbFile.isFile() && dbFile.lastModified() == dbModified && dbFile.length() == dbLength;
+        }
+    }
+
+    /**
+     * Map store file and read its header. Broken, incompatible or file saved against other VFS is deleted.
+     */
+    void open() {
+        synchronized (myLock) {
+            if (!myFile.isFile()) {
+                return;
+            }
+            try {
+                RandomAccessFile raf = new RandomAccessFile(myFile, "r");
+                try {
+                    FileChannel channel = raf.getChannel();
+                    myBuffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+                } finally {
+                    raf.close();
+                }
+                DataInputStream header = new DataInputStream(new BufferInputStream(myBuffer.duplicate()));
+                if (header.readInt() != MAGIC || header.readInt() != VERSION) {
+                    LOG.info("Discarding incompatible status cache " + myFile);
+                    discardAll();
+                    return;
+                }
+                if (header.readLong() != FSRecords.getCreationTimestamp()) {
+                    LOG.info("Discarding status cache " + myFile + " saved against other VFS");
+                    discardAll();
+                    return;
+                }
+                int count = header.readInt();
+                int dataStart = header.readInt();
+                final List<Section> sections = Lists.newArrayListWithCapacity(count);
+                for (int i = 0; i < count; i++) {
+                    sections.add(new Section(header.readUTF(), header.readLong(), header.readLong(),
+                            dataStart + header.readInt(), header.readInt()));
+                }
+                //only roots are resolved here, statuses are keyed by id
+                ApplicationManager.getApplication().runReadAction(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Section section : sections) {
+                            section.root = LocalFileSystem.getInstance().findFileByPath(section.rootPath);
+                        }
+                    }
+                });
+                for (Section section : sections) {
+                    if (section.root != null) {
+                        mySections.put(section.root, section);
+                    }
+                }
+                //nothing to load if no root is left
+                releaseIfAllCopied();
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Opened status cache " + myFile + " with " + mySections.size() + " of " + count + " roots");
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to open status cache " + myFile, e);
+                discardAll();
+            }
+        }
+    }
+
+    private void discardAll() {
+        mySections.clear();
+        myLoaded.clear();
+        releaseBuffer();
+        FileUtil.delete(myFile);
+    }
+
+    /**
+     * Unmap store file right away instead of waiting for garbage collection, mapped file cannot be replaced
+     * or deleted on Windows. Must be called under lock.
+     */
+    private void releaseBuffer() {
+        if (myBuffer != null) {
+            ByteBufferUtil.cleanBuffer(myBuffer);
+            myBuffer = null;
+        }
+    }
+
+    /**
+     * Load saved statuses of root in background, unless it was requested already. Does not allocate
+     * once section is requested.
+     *
+     * @param root working copy root cache started to hold statuses of
+     */
+    void touch(@NotNull VirtualFile root) {
+        final Section section = mySections.get(root);
+        if (section != null && section.loadRequested.compareAndSet(false, true)) {
+            SvnToolBoxApp.getInstance().submitUpkeep(myProject, new Runnable() {
+                @Override
+                public void run() {
+                    load(section);
+                }
+            });
+        }
+    }
+
+    private void load(Section section) {
+        if (section.discarded) {
+            return;
+        }
+        if (!section.isCurrent()) {
+            discard(section.root);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Saved statuses of " + section.rootPath + " are stale");
+            }
+            return;
+        }
+        TIntObjectHashMap<ProjectViewStatus> statuses = decode(readSection(section));
+        if (statuses == null) {
+            if (!section.discarded) {
+                LOG.warn("Corrupted saved statuses of " + section.rootPath);
+                discard(section.root);
+            }
+            return;
+        }
+        int[] ids = statuses.keys();
+        for (int id : ids) {
+            myLoaded.put(id, statuses.get(id));
+        }
+        section.ids = ids;
+        //discard running concurrently either sees ids or its flag is seen here
+        if (section.discarded) {
+            forgetAll(ids);
+            return;
+        }
+        synchronized (myLock) {
+            section.copied = true;
+            releaseIfAllCopied();
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Loaded " + ids.length + " saved statuses of " + section.rootPath);
+        }
+    }
+
+    /**
+     * Must be called under lock.
+     */
+    private void releaseIfAllCopied() {
+        for (Section section : mySections.values()) {
+            if (!section.copied) {
+                return;
+            }
+        }
+        releaseBuffer();
+    }
+
+    /**
+     * Copy bytes of section out of mapping.
+     *
+     * @return section bytes or <code>null</code> if mapping is gone
+     */
+    @Nullable
+    private ByteBuffer readSection(Section section) {
+        synchronized (myLock) {
+            if (myBuffer == null) {
+                return null;
+            }
+            ByteBuffer slice = ByteBuffer.allocate(section.length);
+            ByteBuffer source = myBuffer.duplicate();
+            source.position(section.offset);
+            source.limit(section.offset + section.length);
+            slice.put(source);
+            slice.flip();
+            return slice;
+        }
+    }
+
+    @Nullable
+    private TIntObjectHashMap<ProjectViewStatus> decode(@Nullable ByteBuffer bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            DataInputStream input = new DataInputStream(new BufferInputStream(bytes));
+            int nameCount = input.readInt();
+            List<ProjectViewStatus> names = Lists.newArrayListWithCapacity(nameCount);
+            for (int i = 0; i < nameCount; i++) {
+                names.add(new ProjectViewStatus(input.readUTF()));
+            }
+            int entryCount = input.readInt();
+            TIntObjectHashMap<ProjectViewStatus> statuses = new TIntObjectHashMap<ProjectViewStatus>(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                int id = input.readInt();
+                int index = input.readInt();
+                if (index == EMPTY_STATUS) {
+                    statuses.put(id, ProjectViewStatus.EMPTY);
+                } else if (index == NOT_CONFIGURED_STATUS) {
+                    statuses.put(id, ProjectViewStatus.NOT_CONFIGURED);
+                } else {
+                    statuses.put(id, names.get(index));
+                }
+            }
+            return statuses;
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void forgetAll(int[] ids) {
+        for (int id : ids) {
+            myLoaded.remove(id);
+        }
+    }
+
+    /**
+     * Lock free lookup of loaded status, does not allocate.
+     *
+     * @param id id of file
+     * @return saved status or <code>null</code> if there is none, it is not loaded yet or root changed since it was saved
+     */
+    @Nullable
+    ProjectViewStatus find(int id) {
+        return myLoaded.get(id);
+    }
+
+    /**
+     * Forget saved status of single file, because it was restored or may no longer hold.
+     */
+    void forget(int id) {
+        myLoaded.remove(id);
+    }
+
+    /**
+     * Forget saved statuses of root.
+     */
+    void discard(@NotNull VirtualFile root) {
+        Section section = mySections.remove(root);
+        if (section != null) {
+            section.discarded = true;
+            int[] ids = section.ids;
+            if (ids != null) {
+                forgetAll(ids);
+            }
+            synchronized (myLock) {
+                releaseIfAllCopied();
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Discarded saved statuses of " + section.rootPath);
+            }
+        }
+    }
+
+    /**
+     * Saved statuses of section neither restored nor forgotten in this session. Must be called under lock.
+     *
+     * @return statuses keyed by file id, <code>null</code> if section no longer holds
+     */
+    @Nullable
+    private TIntObjectHashMap<ProjectViewStatus> carried(Section section) {
+        if (section.discarded) {
+            return null;
+        }
+        int[] ids = section.ids;
+        if (ids == null) {
+            //not loaded in this session, still valid only if root did not change meanwhile
+            return section.isCurrent() ? decode(readSection(section)) : null;
+        }
+        TIntObjectHashMap<ProjectViewStatus> carried = new TIntObjectHashMap<ProjectViewStatus>();
+        for (int id : ids) {
+            ProjectViewStatus status = myLoaded.get(id);
+            if (status != null) {
+                carried.put(id, status);
+            }
+        }
+        return carried;
+    }
+
+    /**
+     * Replace store content with given statuses. Still valid saved statuses not restored in this session are kept.
+     *
+     * @param statuses final statuses of files keyed by root and then by file id
+     */
+    void save(@NotNull Map<VirtualFile, TIntObjectHashMap<ProjectViewStatus>> statuses) {
+        synchronized (myLock) {
+            Map<VirtualFile, TIntObjectHashMap<ProjectViewStatus>> toSave = Maps.newLinkedHashMap();
+            for (Section section : mySections.values()) {
+                TIntObjectHashMap<ProjectViewStatus> carried = carried(section);
+                //stops loading still in progress
+                section.discarded = true;
+                if (carried != null && !carried.isEmpty()) {
+                    toSave.put(section.root, carried);
+                }
+            }
+            for (Entry<VirtualFile, TIntObjectHashMap<ProjectViewStatus>> root : statuses.entrySet()) {
+                TIntObjectHashMap<ProjectViewStatus> merged = toSave.get(root.getKey());
+                if (merged != null) {
+                    TIntObjectHashMap<ProjectViewStatus> current = root.getValue();
+                    for (int id : current.keys()) {
+                        merged.put(id, current.get(id));
+                    }
+                } else {
+                    toSave.put(root.getKey(), root.getValue());
+                }
+            }
+            //release mapping before file is replaced
+            releaseBuffer();
+            mySections.clear();
+            myLoaded.clear();
+            try {
+                write(toSave);
+            } catch (IOException e) {
+                LOG.warn("Failed to save status cache " + myFile, e);
+                FileUtil.delete(myFile);
+            }
+        }
+    }
+
+    private void write(Map<VirtualFile, TIntObjectHashMap<ProjectViewStatus>> statuses) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(data);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerOut = new DataOutputStream(header);
+        int written = 0;
+        for (Entry<VirtualFile, TIntObjectHashMap<ProjectViewStatus>> root : statuses.entrySet()) {
+            String rootPath = root.getKey().getPath();
+            File dbFile = WcDbReader.getDbFile(new File(rootPath));
+            if (!dbFile.isFile() || root.getValue().isEmpty()) {
+                continue;
+            }
+            int offset = dataOut.size();
+            writeSection(dataOut, root.getValue());
+            headerOut.writeUTF(rootPath);
+            headerOut.writeLong(dbFile.lastModified());
+            headerOut.writeLong(dbFile.length());
+            headerOut.writeInt(offset);
+            headerOut.writeInt(dataOut.size() - offset);
+            written++;
+        }
+        dataOut.flush();
+        headerOut.flush();
+        FileUtil.createParentDirs(myFile);
+        File temp = new File(myFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(FSRecords.getCreationTimestamp());
+            out.writeInt(written);
+            //magic, version, VFS timestamp, count and data start itself precede root entries
+            out.writeInt(24 + header.size());
+            header.writeTo(out);
+            data.writeTo(out);
+        } finally {
+            out.close();
+        }
+        FileUtil.rename(temp, myFile);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Saved statuses of " + written + " roots to " + myFile + ", bytes=" + myFile.length());
+        }
+    }
+
+    private void writeSection(DataOutputStream out, TIntObjectHashMap<ProjectViewStatus> statuses) throws IOException {
+        Map<String, Integer> names = Maps.newLinkedHashMap();
+        int[] ids = statuses.keys();
+        for (int id : ids) {
+            ProjectViewStatus status = statuses.get(id);
+            if (isNamed(status) && !names.containsKey(status.getBranchName())) {
+                names.put(status.getBranchName(), names.size());
+            }
+        }
+        out.writeInt(names.size());
+        for (String name : names.keySet()) {
+            out.writeUTF(name);
+        }
+        out.writeInt(ids.length);
+        for (int id : ids) {
+            out.writeInt(id);
+            ProjectViewStatus status = statuses.get(id);
+            if (status.isEmpty()) {
+                out.writeInt(EMPTY_STATUS);
+            } else if (status.equals(ProjectViewStatus.NOT_CONFIGURED)) {
+                out.writeInt(NOT_CONFIGURED_STATUS);
+            } else {
+                out.writeInt(names.get(status.getBranchName()));
+            }
+        }
+    }
+
+    private static boolean isNamed(ProjectViewStatus status) {
+        return !status.isEmpty() && !status.equals(ProjectViewStatus.NOT_CONFIGURED);
+    }
+
+    /**
+     * @return <code>true</code> if status can be saved, temporary statuses are recalculated every session
+     */
+    static boolean isPersistable(ProjectViewStatus status) {
+        return !status.isTemporary();
+    }
+
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer myBuffer;
+
+        private BufferInputStream(ByteBuffer buffer) {
+            myBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return myBuffer.hasRemaining() ? myBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@NotNull byte[] bytes, int offset, int length) {
+            if (!myBuffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, myBuffer.remaining());
+            myBuffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
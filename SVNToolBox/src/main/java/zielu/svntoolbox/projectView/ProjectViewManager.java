@@ -3,30 +3,43 @@
  */
 package zielu.svntoolbox.projectView;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
-import com.intellij.ide.projectView.ProjectView;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.AbstractProjectComponent;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vcs.changes.committed.VcsConfigurationChangeListener;
 import com.intellij.openapi.vcs.changes.committed.VcsConfigurationChangeListener.Notification;
 import com.intellij.openapi.vcs.update.UpdatedFilesListener;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.openapi.vfs.VirtualFileEvent;
-import com.intellij.openapi.vfs.VirtualFileListener;
 import com.intellij.openapi.vfs.VirtualFileManager;
-import com.intellij.openapi.vfs.VirtualFileMoveEvent;
-import com.intellij.openapi.vfs.ex.VirtualFileManagerEx;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
 import com.intellij.util.messages.MessageBusConnection;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import org.jetbrains.annotations.NotNull;
 import zielu.svntoolbox.FileStatusCalculator;
+import zielu.svntoolbox.SvnToolBoxApp;
 import zielu.svntoolbox.SvnToolBoxProject;
+import zielu.svntoolbox.config.SvnToolBoxAppState;
 import zielu.svntoolbox.config.SvnToolBoxProjectState;
 import zielu.svntoolbox.util.Vfs;
+import zielu.svntoolbox.wc.WcDbChangeNotifier;
+import zielu.svntoolbox.wc.WorkingCopyRoots;
 
 /**
  * <p></p>
@@ -36,14 +49,23 @@ import zielu.svntoolbox.util.Vfs;
  * @author Lukasz Zielinski
  */
 public class ProjectViewManager extends AbstractProjectComponent {
+    private static final long WC_DB_SETTLE_MILLIS = 500;
+    private static final long WC_DB_MAX_SETTLE_MILLIS = 5000;
+
     private final Logger LOG = Logger.getInstance(getClass());
 
     private final AtomicBoolean myActive = new AtomicBoolean();
 
+    private final FileStatusCalculator myStatusCalc = new FileStatusCalculator();
+    private final Set<VirtualFile> myChangedWcDbRoots = Sets.newHashSet();
+    //guarded by myChangedWcDbRoots
+    private ScheduledFuture<?> myWcDbSettle;
+    private long myFirstWcDbChange;
+
     private ProjectViewStatusCache myStatusCache;
+    private ProjectViewRefresher myRefresher;
 
     private MessageBusConnection myConnection;
-    private VirtualFileListener myVfListener;
 
     private Supplier<Integer> PV_SEQ;
 
@@ -59,26 +81,220 @@ public class ProjectViewManager extends AbstractProjectComponent {
         return myStatusCache;
     }
 
-    public void refreshProjectView(final Project project) {
+    private boolean canRefresh(Project project) {
         if (SvnToolBoxProjectState.getInstance(project).showingAnyDecorations()) {
-            if (myActive.get()) {
-                ApplicationManager.getApplication().invokeLater(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (myActive.get()) {
-                            final ProjectView projectView = ProjectView.getInstance(project);
-                            if (LOG.isDebugEnabled()) {
-                                LOG.debug("[" + PV_SEQ.get() + "] Refreshing Project View");
-                            }
-                            projectView.refresh();
-                        }
-                    }
-                });
-            }
+            return myActive.get();
         } else {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("[" + PV_SEQ.get() + "] Project View refresh ignored - decorations disabled");
             }
+            return false;
+        }
+    }
+
+    public void refreshProjectView(final Project project) {
+        if (canRefresh(project)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("[" + PV_SEQ.get() + "] Requesting full Project View refresh");
+            }
+            myRefresher.refreshAll();
+        }
+    }
+
+    /**
+     * Update Project View nodes of given files and their loaded subtrees.
+     *
+     * @param files files whose status changed
+     */
+    public void refreshProjectViewNodes(Collection<VirtualFile> files) {
+        if (!files.isEmpty() && canRefresh(myProject)) {
+            myRefresher.refreshFiles(files);
+        }
+    }
+
+    private List<VirtualFile> evictChangedSwitchedSubtrees(Collection<VirtualFile> vFiles) {
+        WorkingCopyRoots wcRoots = WorkingCopyRoots.getInstance(myProject);
+        Set<VirtualFile> roots = Sets.newHashSet();
+        for (VirtualFile vFile : vFiles) {
+            roots.addAll(wcRoots.getRootFor(vFile).asSet());
+        }
+        List<VirtualFile> evicted = Lists.newArrayList();
+        for (VirtualFile root : roots) {
+            //saved statuses were stamped with previous wc.db state
+            myStatusCache.discardSaved(root);
+            Optional<Set<String>> changed = wcRoots.refreshSnapshot(root);
+            if (changed.isPresent()) {
+                List<VirtualFile> changedFiles = Lists.newArrayListWithCapacity(changed.get().size());
+                for (String relPath : changed.get()) {
+                    VirtualFile changedFile = relPath.isEmpty() ? root : root.findFileByRelativePath(relPath);
+                    if (changedFile != null) {
+                        changedFiles.add(changedFile);
+                    }
+                }
+                if (myStatusCache.evictAll(changedFiles)) {
+                    evicted.addAll(changedFiles);
+                }
+            } else {
+                myStatusCache.invalidateRoot(root);
+                evicted.add(root);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Single background stage for files updated by Svn. Collapses paths to covering directories, evicts their statuses,
+     * refreshes affected Project View nodes and notifies other listeners with affected files under Svn.
+     */
+    private void processUpdatedPaths(Set<String> paths) {
+        if (!myActive.get() || myProject.isDisposed()) {
+            return;
+        }
+        Set<String> covering = Vfs.collapseToCovering(paths);
+        final List<VirtualFile> vFiles = Vfs.pathsToFiles(covering);
+        boolean somethingEvicted = myStatusCache.evictAll(vFiles);
+        List<VirtualFile> evictedSubtrees = evictChangedSwitchedSubtrees(vFiles);
+        List<VirtualFile> vFilesUnderSvn = ApplicationManager.getApplication().runReadAction(new Computable<List<VirtualFile>>() {
+            @Override
+            public List<VirtualFile> compute() {
+                if (myProject.isDisposed()) {
+                    return Collections.emptyList();
+                }
+                return myStatusCalc.filterUnderSvn(myProject, vFiles);
+            }
+        });
+        Set<VirtualFile> toRefresh = Sets.newHashSet(vFilesUnderSvn);
+        if (somethingEvicted) {
+            toRefresh.addAll(vFiles);
+        }
+        toRefresh.addAll(evictedSubtrees);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[" + PV_SEQ.get() + "] Processed updated paths: paths=" + paths.size() + ", covering=" + covering.size()
+                    + ", somethingEvicted=" + somethingEvicted + ", underSvn=" + vFilesUnderSvn.size()
+                    + ", switchedSubtrees=" + evictedSubtrees.size());
+        }
+        if (!toRefresh.isEmpty()) {
+            refreshProjectViewNodes(toRefresh);
+        }
+        if (!vFilesUnderSvn.isEmpty() && myActive.get()) {
+            myProject.getMessageBus().syncPublisher(SvnFilesUpdatedNotifier.UPDATED_TOPIC).filesUpdated(vFilesUnderSvn);
+        }
+    }
+
+    /**
+     * Evict statuses of files deleted, moved, renamed or otherwise changed by batch of VFS events in single pass.
+     * Directories are evicted with their whole subtrees.
+     */
+    private void evictChanged(List<? extends VFileEvent> events) {
+        List<VirtualFile> changed = Lists.newArrayList();
+        for (VFileEvent event : events) {
+            if (event instanceof VFileDeleteEvent || event instanceof VFileMoveEvent
+                    || event instanceof VFilePropertyChangeEvent) {
+                VirtualFile file = event.getFile();
+                if (file != null) {
+                    changed.add(file);
+                }
+            }
+        }
+        if (!changed.isEmpty()) {
+            evictSoon(changed);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("[" + PV_SEQ.get() + "] Evicting for VFS changes: events=" + events.size() + ", changed=" + changed.size());
+            }
+        }
+    }
+
+    private void evictCopies(List<? extends VFileEvent> events) {
+        List<VirtualFile> copies = Lists.newArrayList();
+        for (VFileEvent event : events) {
+            if (event instanceof VFileCopyEvent) {
+                VFileCopyEvent copyEvent = (VFileCopyEvent) event;
+                VirtualFile copy = copyEvent.getNewParent().findChild(copyEvent.getNewChildName());
+                if (copy != null) {
+                    copies.add(copy);
+                }
+            }
+        }
+        if (!copies.isEmpty()) {
+            evictSoon(copies);
+        }
+    }
+
+    /**
+     * VFS events are delivered on EDT under write action, so evict right away only if cache is not busy
+     * and leave waiting for status workers to pooled thread.
+     */
+    private void evictSoon(final List<VirtualFile> files) {
+        if (!myStatusCache.tryEvictAll(files)) {
+            SvnToolBoxApp.getInstance().submitUpkeep(myProject, new Runnable() {
+                @Override
+                public void run() {
+                    myStatusCache.evictAll(files);
+                }
+            });
+        }
+    }
+
+    private void scheduleWcDbChange(VirtualFile root) {
+        //svn rewrites wc.db many times during single command, handle it once it settles
+        synchronized (myChangedWcDbRoots) {
+            myChangedWcDbRoots.add(root);
+            long now = System.currentTimeMillis();
+            if (myWcDbSettle == null) {
+                myFirstWcDbChange = now;
+            } else if (now - myFirstWcDbChange < WC_DB_MAX_SETTLE_MILLIS) {
+                //each change restarts the wait, but endless stream of changes does not postpone handling forever
+                myWcDbSettle.cancel(false);
+            } else {
+                return;
+            }
+            myWcDbSettle = SvnToolBoxApp.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    SvnToolBoxApp.getInstance().submitUpkeep(myProject, new Runnable() {
+                        @Override
+                        public void run() {
+                            processWcDbChanges();
+                        }
+                    });
+                }
+            }, WC_DB_SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Re-derive switched subtrees of roots whose wc.db changed and evict statuses of those that changed.
+     */
+    private void processWcDbChanges() {
+        List<VirtualFile> roots;
+        synchronized (myChangedWcDbRoots) {
+            roots = Lists.newArrayList(myChangedWcDbRoots);
+            myChangedWcDbRoots.clear();
+            myWcDbSettle = null;
+        }
+        if (!myActive.get() || myProject.isDisposed()) {
+            return;
+        }
+        WorkingCopyRoots wcRoots = WorkingCopyRoots.getInstance(myProject);
+        List<VirtualFile> affected = Lists.newArrayList();
+        for (VirtualFile root : roots) {
+            if (!root.isValid()) {
+                continue;
+            }
+            if (wcRoots.hasSnapshot(root)) {
+                affected.addAll(evictChangedSwitchedSubtrees(Collections.singletonList(root)));
+            } else {
+                //nothing to compare with, statuses of root were not derived from wc.db
+                myStatusCache.invalidateRoot(root);
+                affected.add(root);
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[" + PV_SEQ.get() + "] Processed wc.db changes: roots=" + roots.size() + ", affected=" + affected.size());
+        }
+        if (!affected.isEmpty()) {
+            refreshProjectViewNodes(affected);
+            myProject.getMessageBus().syncPublisher(SvnFilesUpdatedNotifier.UPDATED_TOPIC).filesUpdated(affected);
         }
     }
 
@@ -87,7 +303,13 @@ public class ProjectViewManager extends AbstractProjectComponent {
         super.initComponent();
         if (myActive.compareAndSet(false, true)) {
             PV_SEQ = SvnToolBoxProject.getInstance(myProject).sequence();
-            myStatusCache = new ProjectViewStatusCache(PV_SEQ);
+            PersistentStatusStore store = null;
+            if (SvnToolBoxAppState.getInstance().persistStatusCache) {
+                store = PersistentStatusStore.forProject(myProject);
+                store.open();
+            }
+            myStatusCache = new ProjectViewStatusCache(PV_SEQ, WorkingCopyRoots.getInstance(myProject), store);
+            myRefresher = new ProjectViewRefresher(myProject, PV_SEQ);
             myConnection = myProject.getMessageBus().connect();
             myConnection.subscribe(DecorationToggleNotifier.TOGGLE_TOPIC, new DecorationToggleNotifier() {
                 @Override
@@ -98,8 +320,17 @@ public class ProjectViewManager extends AbstractProjectComponent {
             myConnection.subscribe(VcsConfigurationChangeListener.BRANCHES_CHANGED, new Notification() {
                 @Override
                 public void execute(Project project, VirtualFile vcsRoot) {
-                    myStatusCache.evictAll(vcsRoot.getCanonicalFile());
-                    refreshProjectView(project);
+                    VirtualFile root = vcsRoot.getCanonicalFile();
+                    if (root != null) {
+                        Set<VirtualFile> wcRoots = WorkingCopyRoots.getInstance(myProject).getRootsCovering(root);
+                        if (wcRoots.isEmpty()) {
+                            myStatusCache.evictAll(root);
+                        }
+                        for (VirtualFile wcRoot : wcRoots) {
+                            myStatusCache.invalidateRoot(wcRoot);
+                        }
+                        refreshProjectViewNodes(Collections.singletonList(root));
+                    }
                 }
             });
             myConnection.subscribe(DecorationSettingsNotifier.TOGGLE_TOPIC, new DecorationSettingsNotifier() {
@@ -109,51 +340,38 @@ public class ProjectViewManager extends AbstractProjectComponent {
                 }
             });
             myConnection.subscribe(UpdatedFilesListener.UPDATED_FILES, new UpdatedFilesListener() {
-                final FileStatusCalculator myStatusCalc = new FileStatusCalculator();
-
                 @Override
                 public void consume(Set<String> paths) {
                     final Set<String> localPaths = Sets.newLinkedHashSet(paths);
                     if (LOG.isDebugEnabled()) {
-                        LOG.debug("[" + PV_SEQ.get() + "] Updated paths: " + localPaths);
+                        LOG.debug("[" + PV_SEQ.get() + "] Updated paths: " + localPaths.size());
                     }
-                    ApplicationManager.getApplication().invokeLater(new Runnable() {
+                    SvnToolBoxApp.getInstance().submitUpkeep(myProject, new Runnable() {
                         @Override
                         public void run() {
-                            List<VirtualFile> vFiles = Vfs.pathsToFiles(localPaths);
-                            boolean somethingEvicted = myStatusCache.evictAll(vFiles);
-                            List<VirtualFile> vFilesUnderSvn = myStatusCalc.filterUnderSvn(myProject, vFiles);
-                            boolean somethingUnderSvn = vFilesUnderSvn.size() > 0;
-                            if (somethingEvicted || somethingUnderSvn) {
-                                if (LOG.isDebugEnabled()) {
-                                    LOG.debug("[" + PV_SEQ.get() + "] Requesting project view refresh: somethingEvicted=" + somethingEvicted + ", somethingUnderSvn=" + somethingUnderSvn);
-                                }
-                                refreshProjectView(myProject);
-                            }
+                            processUpdatedPaths(localPaths);
                         }
                     });
                 }
             });
 
-            myVfListener = new VirtualFileListener() {
+            myConnection.subscribe(WcDbChangeNotifier.WC_DB_TOPIC, new WcDbChangeNotifier() {
                 @Override
-                public void beforeFileDeletion(VirtualFileEvent event) {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("[" + PV_SEQ.get() + "] Before deletion: " + event);
-                    }
-                    myStatusCache.evict(event.getFile());
+                public void wcDbChanged(@NotNull VirtualFile root) {
+                    scheduleWcDbChange(root);
+                }
+            });
+            myConnection.subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+                @Override
+                public void before(@NotNull List<? extends VFileEvent> events) {
+                    evictChanged(events);
                 }
 
                 @Override
-                public void beforeFileMovement(VirtualFileMoveEvent event) {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("[" + PV_SEQ.get() + "] Before move: " + event);
-                    }
-                    myStatusCache.evict(event.getFile());
+                public void after(@NotNull List<? extends VFileEvent> events) {
+                    evictCopies(events);
                 }
-            };
-            VirtualFileManager vfm = VirtualFileManagerEx.getInstance();
-            vfm.addVirtualFileListener(myVfListener);
+            });
         }
     }
 
@@ -163,10 +381,8 @@ public class ProjectViewManager extends AbstractProjectComponent {
             if (myConnection != null) {
                 myConnection.disconnect();
             }
-            VirtualFileManager vfm = VirtualFileManagerEx.getInstance();
-            if (myVfListener != null) {
-                vfm.removeVirtualFileListener(myVfListener);
-            }
+            myRefresher.dispose();
+            myStatusCache.persist();
             myStatusCache.dispose();
         }
         super.disposeComponent();
@@ -0,0 +1,162 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.projectView;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Sets;
+import com.intellij.ide.projectView.ProjectView;
+import com.intellij.ide.projectView.impl.AbstractProjectViewPane;
+import com.intellij.ide.projectView.impl.ProjectViewPane;
+import com.intellij.ide.util.treeView.AbstractTreeBuilder;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiManager;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import zielu.svntoolbox.SvnToolBoxApp;
+import zielu.svntoolbox.config.SvnToolBoxAppState;
+import zielu.svntoolbox.util.Vfs;
+
+/**
+ * <p>Coalesces Project View refresh requests made within configured time window.</p>
+ * <p>When only some files changed status just their nodes are updated, without rebuilding tree structure.
+ * Many changed siblings are collapsed into update of their parent and too many targets fall back to full refresh.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+class ProjectViewRefresher {
+    private static final int MAX_TARGETED_UPDATES = 200;
+
+    private final Logger LOG = Logger.getInstance(getClass());
+
+    private final Project myProject;
+    private final Supplier<Integer> PV_SEQ;
+
+    private final Object myLock = new Object();
+    private Set<VirtualFile> myPendingFiles = Sets.newHashSet();
+    private boolean myFullRefreshPending;
+    private boolean myFlushScheduled;
+    private volatile boolean myActive = true;
+
+    ProjectViewRefresher(@NotNull Project project, @NotNull Supplier<Integer> seq) {
+        myProject = project;
+        PV_SEQ = seq;
+    }
+
+    void refreshAll() {
+        synchronized (myLock) {
+            myFullRefreshPending = true;
+            myPendingFiles.clear();
+            scheduleFlush();
+        }
+    }
+
+    void refreshFiles(@NotNull Collection<VirtualFile> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+        synchronized (myLock) {
+            if (!myFullRefreshPending) {
+                myPendingFiles.addAll(files);
+            }
+            scheduleFlush();
+        }
+    }
+
+    void dispose() {
+        myActive = false;
+        synchronized (myLock) {
+            myPendingFiles.clear();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!myFlushScheduled) {
+            myFlushScheduled = true;
+            SvnToolBoxApp.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ApplicationManager.getApplication().invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush();
+                        }
+                    }, myProject.getDisposed());
+                }
+            }, SvnToolBoxAppState.getInstance().getProjectViewRefreshMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        boolean fullRefresh;
+        Set<VirtualFile> files;
+        synchronized (myLock) {
+            fullRefresh = myFullRefreshPending;
+            files = myPendingFiles;
+            myFullRefreshPending = false;
+            myPendingFiles = Sets.newHashSet();
+            myFlushScheduled = false;
+        }
+        if (!myActive || myProject.isDisposed()) {
+            return;
+        }
+        if (!fullRefresh) {
+            AbstractTreeBuilder builder = getTargetableBuilder();
+            //updating node updates its whole loaded subtree
+            Collection<VirtualFile> targets = Vfs.collapseFilesToCovering(files);
+            if (builder != null && targets.size() <= MAX_TARGETED_UPDATES) {
+                updateNodes(builder, targets);
+                return;
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[" + PV_SEQ.get() + "] Refreshing Project View, changed files=" + files.size());
+        }
+        ProjectView.getInstance(myProject).refresh();
+    }
+
+    @Nullable
+    private AbstractTreeBuilder getTargetableBuilder() {
+        AbstractProjectViewPane pane = ProjectView.getInstance(myProject).getCurrentProjectViewPane();
+        //only project pane shows plain file system nodes that can be looked up by file
+        if (pane != null && ProjectViewPane.ID.equals(pane.getId())) {
+            return pane.getTreeBuilder();
+        }
+        return null;
+    }
+
+    private void updateNodes(AbstractTreeBuilder builder, Collection<VirtualFile> targets) {
+        PsiManager psiManager = PsiManager.getInstance(myProject);
+        ProjectFileIndex fileIndex = ProjectRootManager.getInstance(myProject).getFileIndex();
+        int updated = 0;
+        for (VirtualFile target : targets) {
+            if (target.isValid()) {
+                PsiElement element = target.isDirectory() ? psiManager.findDirectory(target) : psiManager.findFile(target);
+                if (element != null) {
+                    builder.queueUpdateFrom(element, false, false);
+                    updated++;
+                }
+                //content roots are also presented by module nodes
+                Module module = fileIndex.getModuleForFile(target);
+                if (module != null && target.equals(fileIndex.getContentRootForFile(target))) {
+                    builder.queueUpdateFrom(module, false, false);
+                }
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[" + PV_SEQ.get() + "] Updated " + updated + " Project View nodes of " + targets.size() + " targets");
+        }
+    }
+}
@@ -5,18 +5,35 @@ package zielu.svntoolbox.projectView;
 
 import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.LowMemoryWatcher;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.util.containers.ConcurrentIntObjectMap;
+import com.intellij.util.containers.ContainerUtil;
+import gnu.trove.TIntObjectHashMap;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+import zielu.svntoolbox.SvnToolBoxApp;
+import zielu.svntoolbox.config.SvnToolBoxAppState;
+import zielu.svntoolbox.wc.WorkingCopyRoots;
 
 /**
  * <p>Cache makes fallowing assumptions:
@@ -24,48 +41,415 @@ import org.jetbrains.annotations.Nullable;
  * <li>file data is added top-down i.e. first parent then children</li>
  * </ul>
  * </p>
+ * <p>Statuses are kept in a tree of nodes mirroring file hierarchy, indexed by VirtualFile id.
+ * Lookups do not allocate, eviction of directory touches only its own subtree.
+ * Reads are lock free, all modifications are made under single write lock.
+ * Status of node is immutable record published with single volatile write, so readers always see
+ * status, root and generation that belong together and never wait for writers.
+ * Writes made from EDT only try the lock and give up when it is busy.</p>
+ * <p>Every node links its nearest ancestor holding non-empty status, so finding status inherited from parents
+ * does not walk whole ancestor chain. Links are updated when node starts or stops holding non-empty status.</p>
+ * <p>Number of cached statuses is bounded, least recently used ones are evicted in background when capacity
+ * is exceeded and colder half is dropped when IDE runs low on memory.</p>
+ * <p>Final statuses can be saved between sessions. Files not seen in current session are looked up
+ * by id in saved statuses, which are loaded in background per root once cache starts holding its files.</p>
+ * <p>Each entry is stamped with generation of its working copy root. Invalidating root bumps its generation,
+ * which makes all its entries stale at once and rejects results calculated against older generation.</p>
  * <br/>
  * <p>Created on 24.09.13</p>
  *
  * @author Lukasz Zielinski
  */
 public class ProjectViewStatusCache implements Disposable {
+    //compares parent chain lengths, unlike paths they are not built on every call
+    private static final Comparator<VirtualFile> TOP_DOWN = new Comparator<VirtualFile>() {
+        @Override
+        public int compare(VirtualFile first, VirtualFile second) {
+            return Ints.compare(depthOf(first), depthOf(second));
+        }
+    };
+
+    private static final Comparator<TrimCandidate> LEAST_RECENT_FIRST = new Comparator<TrimCandidate>() {
+        @Override
+        public int compare(TrimCandidate first, TrimCandidate second) {
+            return Longs.compare(first.lastAccess, second.lastAccess);
+        }
+    };
+
     private final Logger LOG = Logger.getInstance(getClass());
 
-    //TODO: maybe use ConcurrentSkipListMap ?? if so remember that current size must be maintained externally
-    //see class docs for explanation 
-    private final Map<String, ProjectViewStatus> myDirBranchesCache = new ConcurrentHashMap<String, ProjectViewStatus>();
-    private final Map<String, ProjectViewStatus> myFileBranchesCache = new ConcurrentHashMap<String, ProjectViewStatus>();
+    private static final int NO_ID = 0;
+    //trimming goes below capacity so it does not run on every add
+    private static final double TRIM_TARGET_RATIO = 0.9;
+    //rough shallow sizes on 64-bit JVM with compressed oops, including index and children map entries
+    private static final int NODE_BYTES = 88;
+    private static final int STATUS_BYTES = 32;
+
+    //holds nodes with statuses and their ancestors needed to link them into tree
+    private final ConcurrentIntObjectMap<Node> myNodes = ContainerUtil.createConcurrentIntObjectMap();
+    private final ConcurrentMap<VirtualFile, AtomicLong> myGenerations = new ConcurrentHashMap<VirtualFile, AtomicLong>();
 
     private final AtomicBoolean myActive = new AtomicBoolean(true);
+    private final ReentrantLock myWriteLock = new ReentrantLock();
+    private final AtomicBoolean myTrimming = new AtomicBoolean();
+    //guarded by myWriteLock, volatile for reports
+    private volatile int myDirCount;
+    private volatile int myFileCount;
+    //advanced by writers only, readers just copy it so lookups do not contend on shared counter
+    private volatile long myAccessEpoch;
+    private final LowMemoryWatcher myLowMemoryWatcher;
 
     private final Supplier<Integer> SEQ;
+    private final WorkingCopyRoots myRoots;
+    @Nullable
+    private final PersistentStatusStore myStore;
 
-    public ProjectViewStatusCache(Supplier<Integer> seq) {
+    public ProjectViewStatusCache(Supplier<Integer> seq, WorkingCopyRoots roots, @Nullable PersistentStatusStore store) {
         SEQ = seq;
+        myRoots = roots;
+        myStore = store;
+        myLowMemoryWatcher = LowMemoryWatcher.register(new Runnable() {
+            @Override
+            public void run() {
+                onLowMemory();
+            }
+        });
+    }
+
+    private static class CachedStatus {
+        private final ProjectViewStatus status;
+        @Nullable
+        private final VirtualFile root;
+        private final long generation;
+
+        private CachedStatus(ProjectViewStatus status, @Nullable VirtualFile root, long generation) {
+            this.status = status;
+            this.root = root;
+            this.generation = generation;
+        }
+    }
+
+    private static class Node {
+        private final int id;
+        @Nullable
+        private final Node parent;
+        private final boolean directory;
+        //guarded by myWriteLock
+        private TIntObjectHashMap<Node> children;
+        //guarded by myWriteLock, nearest ancestor holding non-empty status
+        @Nullable
+        private Node decoratedAncestor;
+        @Nullable
+        private volatile CachedStatus cached;
+        //written without lock, lost updates only make recency slightly less precise
+        private volatile long lastAccess;
+
+        private Node(int id, @Nullable Node parent, boolean directory) {
+            this.id = id;
+            this.parent = parent;
+            this.directory = directory;
+        }
+
+        private boolean hasChildren() {
+            return children != null && !children.isEmpty();
+        }
+
+        private boolean isDecorated() {
+            CachedStatus current = cached;
+            return current != null && !current.status.isEmpty();
+        }
+
+        /**
+         * @return node descendants should link as their nearest decorated ancestor
+         */
+        @Nullable
+        private Node decoratedForChildren() {
+            return isDecorated() ? this : decoratedAncestor;
+        }
+    }
+
+    private static class TrimCandidate {
+        private final Node node;
+        //captured once, as node keeps being accessed while candidates are sorted
+        private final long lastAccess;
+
+        private TrimCandidate(Node node) {
+            this.node = node;
+            this.lastAccess = node.lastAccess;
+        }
+    }
+
+    private static int idOf(@Nullable VirtualFile file) {
+        return file instanceof VirtualFileWithId ? ((VirtualFileWithId) file).getId() : NO_ID;
+    }
+
+    private static int depthOf(VirtualFile file) {
+        int depth = 0;
+        for (VirtualFile parent = file.getParent(); parent != null; parent = parent.getParent()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Statuses are keyed by file id, files outside of persistent file system have none and are never cached.
+     * Such files must not be decorated, otherwise every decoration would miss and request calculation again.
+     *
+     * @param file file to check
+     * @return <code>true</code> if status of file can be cached
+     */
+    public static boolean isCacheable(@Nullable VirtualFile file) {
+        return idOf(file) != NO_ID;
+    }
+
+    @Nullable
+    private Node nodeOf(VirtualFile file) {
+        int id = idOf(file);
+        return id != NO_ID ? myNodes.get(id) : null;
+    }
+
+    /**
+     * Find or create node of file together with its missing ancestors. Must be called under write lock.
+     */
+    @Nullable
+    private Node ensureNode(VirtualFile file) {
+        int id = idOf(file);
+        if (id == NO_ID) {
+            return null;
+        }
+        Node node = myNodes.get(id);
+        if (node == null) {
+            VirtualFile parentFile = file.getParent();
+            Node parent = parentFile != null ? ensureNode(parentFile) : null;
+            node = new Node(id, parent, file.isDirectory());
+            if (parent != null) {
+                node.decoratedAncestor = parent.decoratedForChildren();
+                if (parent.children == null) {
+                    parent.children = new TIntObjectHashMap<Node>();
+                }
+                parent.children.put(id, node);
+            }
+            myNodes.put(id, node);
+        }
+        return node;
     }
 
     @Nullable
-    private String getKeyFor(@Nullable VirtualFile vFile) {
-        return vFile != null ? vFile.getPath() : null;
+    private CachedStatus setCached(Node node, @Nullable CachedStatus cached) {
+        boolean wasDecorated = node.isDecorated();
+        CachedStatus previous = setCachedNoRelink(node, cached);
+        if (wasDecorated != node.isDecorated()) {
+            relinkDescendants(node);
+        }
+        return previous;
     }
-    
-    private Map<String, ProjectViewStatus> getCacheFor(VirtualFile vFile) {
-        if (vFile.isDirectory()) {
-            return myDirBranchesCache;
+
+    @Nullable
+    private CachedStatus setCachedNoRelink(Node node, @Nullable CachedStatus cached) {
+        CachedStatus previous = node.cached;
+        node.cached = cached;
+        int delta = (cached != null ? 1 : 0) - (previous != null ? 1 : 0);
+        if (node.directory) {
+            myDirCount += delta;
         } else {
-            return myFileBranchesCache;
+            myFileCount += delta;
+        }
+        return previous;
+    }
+
+    /**
+     * Point descendants of node to its current decorated ancestor.
+     * Decorated descendants stop the walk as their own subtrees link to them.
+     */
+    private void relinkDescendants(Node node) {
+        if (!node.hasChildren()) {
+            return;
+        }
+        Node linked = node.decoratedForChildren();
+        Deque<Node> toVisit = new ArrayDeque<Node>();
+        toVisit.push(node);
+        while (!toVisit.isEmpty()) {
+            Node current = toVisit.pop();
+            if (current.children != null) {
+                for (Object value : current.children.getValues()) {
+                    Node child = (Node) value;
+                    child.decoratedAncestor = linked;
+                    if (!child.isDecorated()) {
+                        toVisit.push(child);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove nodes which neither hold status nor link any other node, starting from given one.
+     */
+    private void prune(@Nullable Node node) {
+        while (node != null && node.cached == null && !node.hasChildren()) {
+            myNodes.remove(node.id);
+            if (node.parent != null) {
+                node.parent.children.remove(node.id);
+            }
+            node = node.parent;
+        }
+    }
+
+    /**
+     * Get current generation of working copy root.
+     *
+     * @param root working copy root, <code>null</code> for files outside working copies
+     * @return generation to stamp status requests with
+     */
+    public long getGeneration(@Nullable VirtualFile root) {
+        if (root != null) {
+            AtomicLong generation = myGenerations.get(root);
+            if (generation != null) {
+                return generation.get();
+            }
+        }
+        return 0;
+    }
+
+    private boolean isCurrent(CachedStatus cached) {
+        return cached.generation == getGeneration(cached.root);
+    }
+
+    @Nullable
+    private ProjectViewStatus statusOf(@Nullable CachedStatus cached) {
+        return cached != null && isCurrent(cached) ? cached.status : null;
+    }
+
+    /**
+     * Invalidate all statuses of working copy root in constant time.
+     * Results calculated for requests stamped with previous generation will be rejected.
+     *
+     * @param root working copy root
+     */
+    public void invalidateRoot(@NotNull VirtualFile root) {
+        myWriteLock.lock();
+        try {
+            AtomicLong generation = myGenerations.get(root);
+            if (generation == null) {
+                generation = new AtomicLong();
+                myGenerations.put(root, generation);
+            }
+            long current = generation.incrementAndGet();
+            if (myStore != null) {
+                myStore.discard(root);
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("[" + SEQ.get() + "] Invalidated root " + root.getPath() + ", generation=" + current);
+            }
+        } finally {
+            myWriteLock.unlock();
         }
     }
 
     private String getCacheReport() {
-        return "dirCacheSize=" + myDirBranchesCache.size() + ", fileCacheSize=" + myFileBranchesCache.size();
+        return "dirCacheSize=" + myDirCount + ", fileCacheSize=" + myFileCount + ", nodes=" + myNodes.size()
+                + ", estimatedBytes=" + getEstimatedRetainedBytes();
+    }
+
+    /**
+     * @return number of cached statuses
+     */
+    public int getSize() {
+        return myDirCount + myFileCount;
+    }
+
+    /**
+     * @return rough estimate of memory retained by cache, excluding shared status instances
+     */
+    public long getEstimatedRetainedBytes() {
+        return (long) myNodes.size() * NODE_BYTES + (long) getSize() * STATUS_BYTES;
+    }
+
+    /**
+     * Trim in background when capacity is exceeded, so callers on EDT never sort candidates nor wait for write lock.
+     * At most one trim runs at a time.
+     */
+    private void trimIfNeeded() {
+        if (getSize() > SvnToolBoxAppState.getInstance().getStatusCacheCapacity() && myTrimming.compareAndSet(false, true)) {
+            SvnToolBoxApp.getInstance().submitUpkeep(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (myActive.get()) {
+                            int capacity = SvnToolBoxAppState.getInstance().getStatusCacheCapacity();
+                            trimTo((int) (capacity * TRIM_TARGET_RATIO));
+                        }
+                    } finally {
+                        myTrimming.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    private void onLowMemory() {
+        if (myActive.get() && myTrimming.compareAndSet(false, true)) {
+            try {
+                int evicted = trimTo(getSize() / 2);
+                LOG.info("Low memory, evicted " + evicted + " cached statuses, sizeAfter=[" + getCacheReport() + "]");
+            } finally {
+                myTrimming.set(false);
+            }
+        }
+    }
+
+    /**
+     * Evict least recently used statuses. Victims are selected without holding write lock,
+     * only their eviction is made under it. Caller must own trimming flag.
+     *
+     * @param targetSize number of statuses to keep
+     * @return number of evicted statuses
+     */
+    private int trimTo(int targetSize) {
+        int toEvict = getSize() - targetSize;
+        if (toEvict <= 0) {
+            return 0;
+        }
+        List<TrimCandidate> cached = Lists.newArrayListWithCapacity(getSize());
+        for (Node node : myNodes.values()) {
+            if (node.cached != null) {
+                cached.add(new TrimCandidate(node));
+            }
+        }
+        Collections.sort(cached, LEAST_RECENT_FIRST);
+        int evicted = 0;
+        myWriteLock.lock();
+        try {
+            for (int i = 0; i < cached.size() && evicted < toEvict; i++) {
+                Node node = cached.get(i).node;
+                //skip nodes evicted meanwhile
+                if (node.cached != null && myNodes.get(node.id) == node) {
+                    setCached(node, null);
+                    prune(node);
+                    evicted++;
+                }
+            }
+        } finally {
+            myWriteLock.unlock();
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[" + SEQ.get() + "] Trimmed " + evicted + " least recently used statuses, sizeAfter=[" + getCacheReport() + "]");
+        }
+        return evicted;
     }
 
     @Nullable
     public ProjectViewStatus get(VirtualFile file) {
         if (myActive.get()) {
-            ProjectViewStatus status = getCacheFor(file).get(getKeyFor(file));
+            Node node = nodeOf(file);
+            ProjectViewStatus status = null;
+            if (node != null) {
+                status = statusOf(node.cached);
+                node.lastAccess = myAccessEpoch;
+            }
+            if (status == null && (node == null || node.cached == null)) {
+                status = restore(file);
+            }
             if (status != null && LOG.isDebugEnabled()) {
                 LOG.debug("[" + SEQ.get() + "] Found cached status for " + file.getPath() + ", " + getCacheReport() + ", status=" + status);
             }
@@ -74,6 +458,75 @@ public class ProjectViewStatusCache implements Disposable {
         return null;
     }
 
+    /**
+     * Look up saved status of file not seen in this session and cache it.
+     * Store is probed by file id only, so misses are cheap enough for EDT.
+     */
+    @Nullable
+    private ProjectViewStatus restore(VirtualFile file) {
+        if (myStore == null) {
+            return null;
+        }
+        int id = idOf(file);
+        ProjectViewStatus saved = id != NO_ID ? myStore.find(id) : null;
+        //lookups must not wait for writers, status is restored on later lookup if lock is busy now
+        if (saved != null && myWriteLock.tryLock()) {
+            PutResult result = null;
+            try {
+                Node node = nodeOf(file);
+                if (node == null || node.cached == null) {
+                    result = addImpl(file, saved);
+                }
+            } finally {
+                myWriteLock.unlock();
+            }
+            if (result != null) {
+                //cache owns the status from now on
+                myStore.forget(id);
+                trimIfNeeded();
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("[" + SEQ.get() + "] Restored saved status for " + file.getPath() + ", status=" + result.getFinalStatus());
+                }
+                return result.getFinalStatus();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Save current final statuses so they can be restored in next session.
+     */
+    public void persist() {
+        if (myStore == null || !myActive.get()) {
+            return;
+        }
+        //store keys statuses by id, so nodes are just grouped by root without touching file system
+        Map<VirtualFile, TIntObjectHashMap<ProjectViewStatus>> statuses = Maps.newHashMap();
+        int count = 0;
+        myWriteLock.lock();
+        try {
+            for (Node node : myNodes.values()) {
+                CachedStatus cached = node.cached;
+                if (cached != null && cached.root != null && isCurrent(cached)
+                        && PersistentStatusStore.isPersistable(cached.status)) {
+                    TIntObjectHashMap<ProjectViewStatus> rootStatuses = statuses.get(cached.root);
+                    if (rootStatuses == null) {
+                        rootStatuses = new TIntObjectHashMap<ProjectViewStatus>();
+                        statuses.put(cached.root, rootStatuses);
+                    }
+                    rootStatuses.put(node.id, cached.status);
+                    count++;
+                }
+            }
+        } finally {
+            myWriteLock.unlock();
+        }
+        myStore.save(statuses);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("[" + SEQ.get() + "] Persisted " + count + " statuses of " + statuses.size() + " roots");
+        }
+    }
+
     /**
      * Add new file status. 
      *
@@ -85,13 +538,134 @@ public class ProjectViewStatusCache implements Disposable {
      */
     @Nullable
     public PutResult add(VirtualFile file, ProjectViewStatus candidate) {
+        PutResult result;
+        myWriteLock.lock();
+        try {
+            result = addImpl(file, candidate);
+        } finally {
+            myWriteLock.unlock();
+        }
+        trimIfNeeded();
+        return result;
+    }
+
+    /**
+     * Add new file status unless it was calculated against outdated root generation.
+     *
+     * @param file       file to add
+     * @param candidate  proposed status
+     * @param generation generation of file root at the time its calculation was requested
+     * @return operation result or <code>null</code> when status is stale or cache is disposed
+     */
+    @Nullable
+    public PutResult add(VirtualFile file, ProjectViewStatus candidate, long generation) {
+        PutResult result = null;
+        myWriteLock.lock();
+        try {
+            if (!isStale(file, generation)) {
+                result = addImpl(file, candidate);
+            }
+        } finally {
+            myWriteLock.unlock();
+        }
+        trimIfNeeded();
+        return result;
+    }
+
+    /**
+     * Add new file status unless other thread is modifying cache at the moment.
+     * Meant for EDT which should never wait for status workers.
+     *
+     * @param file      file to add
+     * @param candidate proposed status
+     * @return operation result or <code>null</code> when cache is disposed or busy
+     */
+    @Nullable
+    public PutResult tryAdd(VirtualFile file, ProjectViewStatus candidate) {
+        PutResult result = null;
+        if (myWriteLock.tryLock()) {
+            try {
+                result = addImpl(file, candidate);
+            } finally {
+                myWriteLock.unlock();
+            }
+            trimIfNeeded();
+        }
+        return result;
+    }
+
+    /**
+     * Add statuses of many files as a single unit.
+     * Files are added top-down so parents are cached before their children.
+     *
+     * @param statuses proposed statuses
+     * @return operation results, empty when cache is disposed
+     */
+    public Map<VirtualFile, PutResult> addAll(Map<VirtualFile, ProjectViewStatus> statuses) {
+        return addAll(statuses, Collections.<VirtualFile, Long>emptyMap());
+    }
+
+    /**
+     * Add statuses of many files as a single unit, skipping those calculated against outdated root generation.
+     *
+     * @param statuses    proposed statuses
+     * @param generations generation of each file root at the time its calculation was requested,
+     *                    files without generation are always added
+     * @return operation results for added files, empty when cache is disposed
+     */
+    public Map<VirtualFile, PutResult> addAll(Map<VirtualFile, ProjectViewStatus> statuses, Map<VirtualFile, Long> generations) {
+        List<VirtualFile> files = Lists.newArrayList(statuses.keySet());
+        Collections.sort(files, TOP_DOWN);
+        Map<VirtualFile, PutResult> results = Maps.newLinkedHashMap();
+        int stale = 0;
+        myWriteLock.lock();
+        try {
+            for (VirtualFile file : files) {
+                Long requested = generations.get(file);
+                if (requested != null && isStale(file, requested)) {
+                    stale++;
+                    continue;
+                }
+                PutResult result = addImpl(file, statuses.get(file));
+                if (result != null) {
+                    results.put(file, result);
+                }
+            }
+        } finally {
+            myWriteLock.unlock();
+        }
+        trimIfNeeded();
+        if (stale > 0 && LOG.isDebugEnabled()) {
+            LOG.debug("[" + SEQ.get() + "] Rejected " + stale + " stale statuses");
+        }
+        return results;
+    }
+
+    private boolean isStale(VirtualFile file, long requested) {
+        return requested != getGeneration(myRoots.getRootFor(file).orNull());
+    }
+
+    @Nullable
+    private PutResult addImpl(VirtualFile file, ProjectViewStatus candidate) {
         if (myActive.get()) {
-            if (!candidate.isEmpty() && isFirstNotEmptyParentStatusEqualTo(file, candidate)) {
+            Node node = ensureNode(file);
+            if (node == null) {
+                //file outside of persistent file system, nothing to key it by
+                return new PutResult(candidate, null);
+            }
+            if (!candidate.isEmpty() && isFirstNotEmptyParentStatusEqualTo(node, candidate)) {
                 //relevant status already cached for parent
                 //net result is that annotations are shown only for switched roots and not their children
                 candidate = ProjectViewStatus.EMPTY;
             }
-            ProjectViewStatus oldStatus = getCacheFor(file).put(getKeyFor(file), candidate);
+            VirtualFile root = myRoots.getRootFor(file).orNull();
+            if (root != null && myStore != null) {
+                //saved statuses of root are loaded once cache starts holding its files
+                myStore.touch(root);
+            }
+            CachedStatus cached = new CachedStatus(candidate, root, getGeneration(root));
+            ProjectViewStatus oldStatus = statusOf(setCached(node, cached));
+            node.lastAccess = ++myAccessEpoch;
             if (LOG.isDebugEnabled()) {
                 LOG.debug("[" + SEQ.get() + "] Cached candidate for " + file.getPath() +
                         ", cacheAfter=[" + getCacheReport() + "], new=" + candidate + ", previous=" + oldStatus);
@@ -101,10 +675,10 @@ public class ProjectViewStatusCache implements Disposable {
         return null;
     }
 
-    private boolean isFirstNotEmptyParentStatusEqualTo(VirtualFile vFile, ProjectViewStatus toCheck) {
-        for (VirtualFile current = vFile.getParent(); current != null; current = current.getParent()) {
-            //look only in dir cache as parents for dirs and files will always be dirs
-            ProjectViewStatus status = myDirBranchesCache.get(getKeyFor(current));
+    private boolean isFirstNotEmptyParentStatusEqualTo(Node node, ProjectViewStatus toCheck) {
+        //only decorated ancestors can hold non-empty status, skip those made stale by root invalidation
+        for (Node current = node.decoratedAncestor; current != null; current = current.decoratedAncestor) {
+            ProjectViewStatus status = statusOf(current.cached);
             if (status != null) {
                 if (!status.isEmpty()) {
                     if (status.isTemporary()) {
@@ -126,49 +700,36 @@ public class ProjectViewStatusCache implements Disposable {
         return false;
     }
 
-    private int evictChildren(VirtualFile parent) {
-        if (parent.isDirectory()) {
-            String parentPath = parent.getPath();
-            //evict files in all subdirectories
-            Set<String> toEvict = Sets.newHashSetWithExpectedSize(myFileBranchesCache.size());
-            for (String path : myFileBranchesCache.keySet()) {
-                if (path.startsWith(parentPath)) {
-                    toEvict.add(path);
-                }
-            }
-            int evictedCount = 0;
-            for (String path : toEvict) {
-                if (evictPath(path)) {
-                    evictedCount++;
-                }
+    /**
+     * Detach subtree of node and drop all its nodes. Must be called under write lock.
+     *
+     * @return number of evicted current statuses, including node itself
+     */
+    private int evictSubtree(Node node) {
+        if (node.parent != null) {
+            node.parent.children.remove(node.id);
+        }
+        int evictedCount = 0;
+        Deque<Node> toVisit = new ArrayDeque<Node>();
+        toVisit.push(node);
+        while (!toVisit.isEmpty()) {
+            Node current = toVisit.pop();
+            myNodes.remove(current.id);
+            if (myStore != null) {
+                myStore.forget(current.id);
             }
-            //evict all subdirectories
-            toEvict = Sets.newHashSetWithExpectedSize(myDirBranchesCache.size());
-            for (String path : myDirBranchesCache.keySet()) {
-                if (path.startsWith(parentPath)) {
-                    toEvict.add(path);
-                }
+            //whole subtree goes away, no need to relink it
+            if (statusOf(setCachedNoRelink(current, null)) != null) {
+                evictedCount++;
             }
-            for (String path : toEvict) {
-                if (evictPath(path)) {
-                    evictedCount++;
+            if (current.children != null) {
+                for (Object child : current.children.getValues()) {
+                    toVisit.push((Node) child);
                 }
             }
-            return evictedCount;
-        }
-        return 0;
-    }
-
-    private boolean evictPath(String filePath) {
-        ProjectViewStatus oldStatus = myDirBranchesCache.remove(filePath);
-        if (oldStatus == null) {
-            oldStatus = myFileBranchesCache.remove(filePath);
         }
-        boolean result = oldStatus != null;
-        if (result && LOG.isDebugEnabled()) {
-            LOG.debug("[" + SEQ.get() + "] Evicted status for " + filePath + ", sizeAfter=[" + getCacheReport() + "], evicted=" + oldStatus);
-        }
-        return result;
+        prune(node.parent);
+        return evictedCount;
     }
 
     /**
@@ -179,7 +740,21 @@ public class ProjectViewStatusCache implements Disposable {
      */
     public boolean evict(VirtualFile file) {
         if (myActive.get()) {
-            return evictPath(getKeyFor(file));
+            myWriteLock.lock();
+            try {
+                Node node = nodeOf(file);
+                if (node != null) {
+                    ProjectViewStatus oldStatus = statusOf(setCached(node, null));
+                    prune(node);
+                    boolean result = oldStatus != null;
+                    if (result && LOG.isDebugEnabled()) {
+                        LOG.debug("[" + SEQ.get() + "] Evicted status for " + file.getPath() + ", sizeAfter=[" + getCacheReport() + "], evicted=" + oldStatus);
+                    }
+                    return result;
+                }
+            } finally {
+                myWriteLock.unlock();
+            }
         }
         return false;
     }
@@ -202,26 +777,14 @@ public class ProjectViewStatusCache implements Disposable {
      */
     public boolean evictAll(Collection<VirtualFile> files) {
         if (myActive.get()) {
-            boolean result = false;
-            int evictedCount = 0;
-            List<VirtualFile> directories = Lists.newArrayListWithCapacity(files.size());
-            for (VirtualFile file : files) {
-                boolean localStatus = evict(file);
-                if (localStatus) {
-                    result = true;
-                    evictedCount++;
-                }
-                if (file.isDirectory()) {
-                    directories.add(file);
-                }
-            }
-            for (VirtualFile dir : directories) {
-                int count = evictChildren(dir);
-                if (count > 0) {
-                    result = true;
-                    evictedCount += count;
-                }
+            int evictedCount;
+            myWriteLock.lock();
+            try {
+                evictedCount = evictAllImpl(files);
+            } finally {
+                myWriteLock.unlock();
             }
+            boolean result = evictedCount > 0;
             if (LOG.isDebugEnabled()) {
                 LOG.debug("[" + SEQ.get() + "] Evicted bulk, totalCount=" + evictedCount + ", sizeAfter=[" + getCacheReport() + "]");
             }
@@ -230,22 +793,99 @@ public class ProjectViewStatusCache implements Disposable {
         return false;
     }
 
-    private void disposeCache(String name, Map<?, ?> cache) {
-        int size = cache.size();
-        cache.clear();
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("[" + SEQ.get() + "] " + name + " cache disposed, had " + size + " entries");
+    /**
+     * Evict passed files status and their children unless other thread is modifying cache at the moment.
+     * Meant for EDT which should never wait for status workers.
+     *
+     * @param files files to evict
+     * @return <code>false</code> if cache was busy and nothing was evicted
+     */
+    public boolean tryEvictAll(Collection<VirtualFile> files) {
+        if (myActive.get()) {
+            if (!myWriteLock.tryLock()) {
+                return false;
+            }
+            int evictedCount;
+            try {
+                evictedCount = evictAllImpl(files);
+            } finally {
+                myWriteLock.unlock();
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("[" + SEQ.get() + "] Evicted bulk without waiting, totalCount=" + evictedCount + ", sizeAfter=[" + getCacheReport() + "]");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Must be called under write lock.
+     *
+     * @return number of evicted current statuses
+     */
+    private int evictAllImpl(Collection<VirtualFile> files) {
+        int evictedCount = 0;
+        for (VirtualFile file : files) {
+            Node node = nodeOf(file);
+            if (node != null) {
+                evictedCount += evictSubtree(node);
+            } else if (myStore != null) {
+                //saved statuses of uncached descendants are dropped with their root once wc.db changes
+                myStore.forget(idOf(file));
+            }
+        }
+        return evictedCount;
+    }
+
+    /**
+     * Forget statuses of working copy root saved in previous session, because its wc.db changed.
+     *
+     * @param root working copy root
+     */
+    public void discardSaved(@NotNull VirtualFile root) {
+        if (myStore != null) {
+            myStore.discard(root);
         }
     }
 
     public void clear() {
-        disposeCache("Dir", myDirBranchesCache);
-        disposeCache("File", myFileBranchesCache);
+        myWriteLock.lock();
+        try {
+            String report = getCacheReport();
+            myNodes.clear();
+            myDirCount = 0;
+            myFileCount = 0;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("[" + SEQ.get() + "] Cache disposed, had [" + report + "]");
+            }
+        } finally {
+            myWriteLock.unlock();
+        }
+    }
+
+    @TestOnly
+    ReentrantLock getWriteLock() {
+        return myWriteLock;
+    }
+
+    @TestOnly
+    int getNodeCount() {
+        return myNodes.size();
+    }
+
+    /**
+     * @return id of nearest decorated ancestor linked by node of file, {@link #NO_ID} if there is none
+     */
+    @TestOnly
+    int getDecoratedAncestorId(VirtualFile file) {
+        Node node = nodeOf(file);
+        return node != null && node.decoratedAncestor != null ? node.decoratedAncestor.id : NO_ID;
     }
 
     @Override
     public void dispose() {
         myActive.set(false);
+        myLowMemoryWatcher.stop();
         clear();
     }
 
@@ -262,6 +902,13 @@ public class ProjectViewStatusCache implements Disposable {
             return finalStatus;
         }
 
+        /**
+         * @return <code>true</code> if status shown for file is different than before
+         */
+        public boolean isChanged() {
+            return !finalStatus.equals(oldStatus);
+        }
+
         public boolean hasOldStatus() {
             return oldStatus != null;
         }
@@ -0,0 +1,24 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.projectView;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.messages.Topic;
+import java.util.Collection;
+
+/**
+ * <p>Published from background thread once files updated by Svn were processed and their cached statuses evicted.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+public interface SvnFilesUpdatedNotifier {
+    Topic<SvnFilesUpdatedNotifier> UPDATED_TOPIC = Topic.create("Svn files updated", SvnFilesUpdatedNotifier.class);
+
+    /**
+     * @param affected minimal set of files and directories under Svn covering all updated files
+     */
+    void filesUpdated(Collection<VirtualFile> affected);
+}
@@ -14,7 +14,6 @@ import com.intellij.openapi.fileEditor.FileEditorManagerEvent;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.changes.committed.VcsConfigurationChangeListener;
 import com.intellij.openapi.vcs.changes.committed.VcsConfigurationChangeListener.Notification;
-import com.intellij.openapi.vcs.update.UpdatedFilesListener;
 import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.wm.StatusBarWidget;
@@ -24,8 +23,6 @@ import com.intellij.util.messages.MessageBusConnection;
 import java.awt.Component;
 import java.awt.event.MouseEvent;
 import java.util.Collection;
-import java.util.List;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import org.jetbrains.annotations.NotNull;
@@ -35,8 +32,8 @@ import org.jetbrains.idea.svn.branchConfig.BranchConfigurationDialog;
 import zielu.svntoolbox.FileStatus;
 import zielu.svntoolbox.FileStatusCalculator;
 import zielu.svntoolbox.SvnToolBoxBundle;
+import zielu.svntoolbox.projectView.SvnFilesUpdatedNotifier;
 import zielu.svntoolbox.util.LogStopwatch;
-import zielu.svntoolbox.util.Vfs;
 
 /**
  * <p></p>
@@ -64,22 +61,18 @@ public class SvnBranchWidget extends EditorBasedWidget implements StatusBarWidge
         super(project);
         myConnection = project.getMessageBus().connect(this);
         myConnection.subscribe(VcsConfigurationChangeListener.BRANCHES_CHANGED, getBranchesChangedNotification());
-        myConnection.subscribe(UpdatedFilesListener.UPDATED_FILES, new UpdatedFilesListener() {
+        myConnection.subscribe(SvnFilesUpdatedNotifier.UPDATED_TOPIC, new SvnFilesUpdatedNotifier() {
             @Override
-            public void consume(Set<String> paths) {
-                List<VirtualFile> vFiles = Vfs.pathsToFiles(paths);
-                final List<VirtualFile> underSvn = myStatusCalculator.filterUnderSvn(getProject(), vFiles);
-                if (!underSvn.isEmpty()) {
-                    ApplicationManager.getApplication().invokeLater(new Runnable() {
-                        @Override
-                        public void run() {
-                            VirtualFile currentFile = getCurrentFile();
-                            if (currentFile != null && isAffected(currentFile, underSvn)) {
-                                runUpdate();
-                            }
+            public void filesUpdated(final Collection<VirtualFile> affected) {
+                ApplicationManager.getApplication().invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        VirtualFile currentFile = getCurrentFile();
+                        if (currentFile != null && isAffected(currentFile, affected)) {
+                            runUpdate();
                         }
-                    });
-                }
+                    }
+                });
             }
         });
     }
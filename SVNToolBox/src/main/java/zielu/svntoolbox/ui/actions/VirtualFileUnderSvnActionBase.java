@@ -9,11 +9,10 @@ import com.intellij.openapi.actionSystem.DataContext;
 import com.intellij.openapi.actionSystem.PlatformDataKeys;
 import com.intellij.openapi.actionSystem.Presentation;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.jetbrains.idea.svn.SvnVcs;
+import zielu.svntoolbox.wc.UnderSvnIndex;
 
 /**
  * <p></p>
@@ -51,8 +50,7 @@ public abstract class VirtualFileUnderSvnActionBase extends AnAction {
             presentation.setVisible(false);
             return;
         }
-        SvnVcs vcs = SvnVcs.getInstance(project);
-        if (!ProjectLevelVcsManager.getInstance(project).checkAllFilesAreUnder(vcs, new VirtualFile[]{vFile})) {
+        if (!UnderSvnIndex.getInstance(project).isUnderVcs(vFile)) {
             presentation.setEnabled(false);
             presentation.setVisible(true);
             return;
@@ -50,6 +50,7 @@ public class SvnToolBoxConfigurable extends BaseConfigurable {
         SvnToolBoxAppState state = SvnToolBoxAppState.getInstance();
         form.setRegularColorState(state.customRegularColor, state.getRegularDecorationColor());
         form.setDarkColorState(state.customDarkColor, state.getDarkDecorationColor());
+        form.setStatusWorkers(state.statusWorkers);
 
         form.getCsvFile().addBrowseFolderListener("",
                 "",
@@ -81,6 +82,9 @@ public class SvnToolBoxConfigurable extends BaseConfigurable {
             changed = true;
         }
 
+        //picked up by next status calculation, no need to redecorate
+        state.statusWorkers = form.getStatusWorkers();
+
         if (changed) {
             state.fireSettingsChanged();
         }
@@ -100,6 +104,9 @@ public class SvnToolBoxConfigurable extends BaseConfigurable {
         if (state.checkDarkDecorationChanged(form.isDarkColorEnabled(), form.getDarkColor())) {
             modified = true;
         }
+        if (Math.max(0, state.statusWorkers) != form.getStatusWorkers()) {
+            modified = true;
+        }
         return modified;
     }
 
@@ -111,6 +118,7 @@ public class SvnToolBoxConfigurable extends BaseConfigurable {
         form.getCsvFile().setText(state.getCsvFile());
         form.setRegularColorState(state.customRegularColor, state.getRegularDecorationColor());
         form.setDarkColorState(state.customDarkColor, state.getDarkDecorationColor());
+        form.setStatusWorkers(state.statusWorkers);
     }
 
     @Override
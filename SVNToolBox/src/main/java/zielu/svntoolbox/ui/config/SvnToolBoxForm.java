@@ -22,6 +22,7 @@ public class SvnToolBoxForm {
     private CheckBoxWithColorChooser regularColorChooser;
     private CheckBoxWithColorChooser darkColorChooser;
     private TextFieldWithBrowseButton csvFileChooser;
+    private JSpinner statusWorkersSpinner;
 
     public JComponent getContent() {
         return content;
@@ -31,6 +32,7 @@ public class SvnToolBoxForm {
         regularColorChooser = new CheckBoxWithColorChooser(SvnToolBoxBundle.getString("configurable.app.regularColor.text"));
         darkColorChooser = new CheckBoxWithColorChooser(SvnToolBoxBundle.getString("configurable.app.darkColor.text"));
         csvFileChooser = new TextFieldWithBrowseButton();
+        statusWorkersSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 64, 1));
     }
 
     public TextFieldWithBrowseButton getCsvFile() {
@@ -66,4 +68,12 @@ public class SvnToolBoxForm {
         darkColorChooser.setSelected(enabled);
         darkColorChooser.setColor(color);
     }
+
+    public int getStatusWorkers() {
+        return ((Number) statusWorkersSpinner.getValue()).intValue();
+    }
+
+    public void setStatusWorkers(int statusWorkers) {
+        statusWorkersSpinner.setValue(Math.max(0, statusWorkers));
+    }
 }
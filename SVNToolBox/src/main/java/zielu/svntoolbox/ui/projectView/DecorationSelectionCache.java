@@ -0,0 +1,104 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.ui.projectView;
+
+import com.intellij.ide.projectView.ProjectViewNode;
+import com.intellij.ide.util.treeView.AbstractTreeNode;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.psi.PsiFileSystemItem;
+import com.intellij.util.containers.ConcurrentIntObjectMap;
+import com.intellij.util.containers.ContainerUtil;
+import java.util.concurrent.ConcurrentMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>Remembers decoration selected for node by node type, type of parent node value and file id.</p>
+ * <p>Only nodes presenting file or directory are remembered, as for them these fully determine the selection.
+ * Selection depends on project roots, so cache must be cleared when they change.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+public class DecorationSelectionCache {
+    private final Logger LOG = Logger.getInstance(getClass());
+
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Class<?>, ConcurrentIntObjectMap<NodeDecoration>>> mySelections =
+            ContainerUtil.newConcurrentMap();
+
+    private static int idOf(ProjectViewNode node) {
+        Object value = node.getValue();
+        if (value instanceof PsiFileSystemItem) {
+            VirtualFile file = ((PsiFileSystemItem) value).getVirtualFile();
+            if (file instanceof VirtualFileWithId) {
+                return ((VirtualFileWithId) file).getId();
+            }
+        }
+        return 0;
+    }
+
+    private static Class<?> parentTypeOf(ProjectViewNode node) {
+        AbstractTreeNode parent = node.getParent();
+        Object parentValue = parent != null ? parent.getValue() : null;
+        return parentValue != null ? parentValue.getClass() : Void.class;
+    }
+
+    @Nullable
+    private ConcurrentIntObjectMap<NodeDecoration> selectionsFor(ProjectViewNode node, boolean create) {
+        ConcurrentMap<Class<?>, ConcurrentIntObjectMap<NodeDecoration>> byParentType = mySelections.get(node.getClass());
+        if (byParentType == null) {
+            if (!create) {
+                return null;
+            }
+            byParentType = ContainerUtil.newConcurrentMap();
+            ConcurrentMap<Class<?>, ConcurrentIntObjectMap<NodeDecoration>> existing =
+                    mySelections.putIfAbsent(node.getClass(), byParentType);
+            if (existing != null) {
+                byParentType = existing;
+            }
+        }
+        Class<?> parentType = parentTypeOf(node);
+        ConcurrentIntObjectMap<NodeDecoration> selections = byParentType.get(parentType);
+        if (selections == null && create) {
+            selections = ContainerUtil.createConcurrentIntObjectMap();
+            ConcurrentIntObjectMap<NodeDecoration> existing = byParentType.putIfAbsent(parentType, selections);
+            if (existing != null) {
+                selections = existing;
+            }
+        }
+        return selections;
+    }
+
+    /**
+     * @return decoration remembered for node or <code>null</code> if it has to be selected
+     */
+    @Nullable
+    public NodeDecoration get(@NotNull ProjectViewNode node) {
+        int id = idOf(node);
+        if (id != 0) {
+            ConcurrentIntObjectMap<NodeDecoration> selections = selectionsFor(node, false);
+            if (selections != null) {
+                return selections.get(id);
+            }
+        }
+        return null;
+    }
+
+    public void put(@NotNull ProjectViewNode node, @NotNull NodeDecoration decoration) {
+        int id = idOf(node);
+        if (id != 0) {
+            selectionsFor(node, true).put(id, decoration);
+        }
+    }
+
+    public void clear() {
+        mySelections.clear();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Decoration selections cleared");
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.ui.projectView;
+
+import com.google.common.collect.ImmutableSet;
+import com.intellij.ide.projectView.ProjectView;
+import com.intellij.ide.projectView.ProjectViewNode;
+import com.intellij.ide.projectView.impl.AbstractProjectViewPane;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import java.awt.Rectangle;
+import java.util.Set;
+import javax.swing.JTree;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.TreePath;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>Tracks which files are shown in visible part of current Project View tree and which directories get collapsed.</p>
+ * <p>Must be used from EDT only.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+public class VisibleNodesTracker implements Disposable {
+    private final Project myProject;
+    private final Listener myListener;
+
+    private JTree myTree;
+    private JViewport myViewport;
+    private volatile Set<VirtualFile> myVisible = ImmutableSet.of();
+
+    private final TreeExpansionListener myExpansionListener = new TreeExpansionListener() {
+        @Override
+        public void treeExpanded(TreeExpansionEvent event) {
+            scheduleUpdate();
+        }
+
+        @Override
+        public void treeCollapsed(TreeExpansionEvent event) {
+            VirtualFile collapsed = fileOf(event.getPath());
+            if (collapsed != null) {
+                myListener.collapsed(collapsed);
+            }
+            scheduleUpdate();
+        }
+    };
+
+    private final ChangeListener myViewportListener = new ChangeListener() {
+        @Override
+        public void stateChanged(ChangeEvent e) {
+            updateVisible();
+        }
+    };
+
+    public VisibleNodesTracker(@NotNull Project project, @NotNull Listener listener) {
+        myProject = project;
+        myListener = listener;
+    }
+
+    public interface Listener {
+        void visibleChanged(@NotNull Set<VirtualFile> visible);
+
+        void collapsed(@NotNull VirtualFile directory);
+    }
+
+    public boolean isVisible(@NotNull VirtualFile file) {
+        return myVisible.contains(file);
+    }
+
+    /**
+     * Attach to tree of current Project View pane, moving from previous one if pane was switched.
+     */
+    public void ensureInstalled() {
+        if (myProject.isDisposed()) {
+            return;
+        }
+        AbstractProjectViewPane pane = ProjectView.getInstance(myProject).getCurrentProjectViewPane();
+        JTree tree = pane != null ? pane.getTree() : null;
+        if (tree != myTree) {
+            uninstall();
+            if (tree != null) {
+                myTree = tree;
+                myTree.addTreeExpansionListener(myExpansionListener);
+                myViewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, tree);
+                if (myViewport != null) {
+                    myViewport.addChangeListener(myViewportListener);
+                }
+                updateVisible();
+            }
+        }
+    }
+
+    private void uninstall() {
+        if (myTree != null) {
+            myTree.removeTreeExpansionListener(myExpansionListener);
+            myTree = null;
+        }
+        if (myViewport != null) {
+            myViewport.removeChangeListener(myViewportListener);
+            myViewport = null;
+        }
+        myVisible = ImmutableSet.of();
+    }
+
+    private void scheduleUpdate() {
+        //let tree layout settle after expansion change
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                updateVisible();
+            }
+        });
+    }
+
+    private void updateVisible() {
+        JTree tree = myTree;
+        if (tree == null || tree.getRowCount() == 0) {
+            return;
+        }
+        Rectangle visibleRect = tree.getVisibleRect();
+        int first = tree.getClosestRowForLocation(visibleRect.x, visibleRect.y);
+        int last = tree.getClosestRowForLocation(visibleRect.x, visibleRect.y + visibleRect.height);
+        ImmutableSet.Builder<VirtualFile> visible = ImmutableSet.builder();
+        for (int row = Math.max(first, 0); row <= last; row++) {
+            VirtualFile file = fileOf(tree.getPathForRow(row));
+            if (file != null) {
+                visible.add(file);
+            }
+        }
+        Set<VirtualFile> newVisible = visible.build();
+        if (!newVisible.equals(myVisible)) {
+            myVisible = newVisible;
+            myListener.visibleChanged(newVisible);
+        }
+    }
+
+    @Nullable
+    private static VirtualFile fileOf(@Nullable TreePath path) {
+        if (path != null) {
+            Object component = path.getLastPathComponent();
+            if (component instanceof DefaultMutableTreeNode) {
+                Object userObject = ((DefaultMutableTreeNode) component).getUserObject();
+                if (userObject instanceof ProjectViewNode) {
+                    return ((ProjectViewNode) userObject).getVirtualFile();
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void dispose() {
+        uninstall();
+    }
+}
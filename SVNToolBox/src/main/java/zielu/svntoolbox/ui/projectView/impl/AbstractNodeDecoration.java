@@ -15,7 +15,6 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.JBColor;
 import com.intellij.ui.SimpleTextAttributes;
 import org.jetbrains.annotations.Nullable;
-import zielu.svntoolbox.FileStatusCalculator;
 import zielu.svntoolbox.SvnToolBoxBundle;
 import zielu.svntoolbox.SvnToolBoxProject;
 import zielu.svntoolbox.async.AsyncFileStatusCalculator;
@@ -27,6 +26,7 @@ import zielu.svntoolbox.projectView.ProjectViewStatusCache.PutResult;
 import zielu.svntoolbox.ui.projectView.NodeDecoration;
 import zielu.svntoolbox.ui.projectView.NodeDecorationType;
 import zielu.svntoolbox.util.LogStopwatch;
+import zielu.svntoolbox.wc.UnderSvnIndex;
 
 /**
  * <p></p>
@@ -40,7 +40,6 @@ public abstract class AbstractNodeDecoration implements NodeDecoration {
     private final static JBColor TEMPORARY_COLOR = new JBColor(new Color(77, 81, 84), new Color(115, 119, 122));
     
     protected final Logger LOG = Logger.getInstance(getClass());    
-    protected final FileStatusCalculator myStatusCalc = new FileStatusCalculator();
 
     protected abstract VirtualFile getVirtualFile(ProjectViewNode node);
 
@@ -65,6 +64,9 @@ public abstract class AbstractNodeDecoration implements NodeDecoration {
     protected ProjectViewStatus getBranchStatusAndCache(ProjectViewNode node) {
         ProjectViewStatusCache cache = ProjectViewManager.getInstance(node.getProject()).getStatusCache();
         VirtualFile vFile = getVirtualFile(node);
+        if (!ProjectViewStatusCache.isCacheable(vFile)) {
+            return null;
+        }
         ProjectViewStatus cached = cache.get(vFile);
         if (cached != null) {
             if (!cached.isEmpty()) {
@@ -72,7 +74,7 @@ public abstract class AbstractNodeDecoration implements NodeDecoration {
             }
             return null;
         } else {
-            PutResult result = cache.add(vFile, ProjectViewStatus.PENDING);                        
+            PutResult result = cache.tryAdd(vFile, ProjectViewStatus.PENDING);                        
             AsyncFileStatusCalculator.getInstance(node.getProject()).scheduleStatusFor(node.getProject(), vFile);
             if (result != null) {
                 return result.getFinalStatus();        
@@ -91,7 +93,7 @@ public abstract class AbstractNodeDecoration implements NodeDecoration {
         watch.tick("Get VFile");
         boolean result = false;
         if (vFile != null) {
-            boolean underControl = myStatusCalc.fastAllFilesUnderSvn(node.getProject(), vFile);
+            boolean underControl = UnderSvnIndex.getInstance(node.getProject()).isUnderSvn(vFile);
             watch.tick("Under control={0}", underControl);
             result = underControl;
         }
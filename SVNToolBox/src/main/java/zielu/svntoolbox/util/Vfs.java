@@ -3,7 +3,11 @@
  */
 package zielu.svntoolbox.util;
 
+import com.google.common.base.Function;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.intellij.openapi.vcs.changes.FilePathsHelper;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -23,6 +27,21 @@ import java.util.Set;
 public enum Vfs {
     instance;
 
+    private static final int SIBLINGS_TO_PARENT = 16;
+    private static final Function<String, String> PATH_PARENT = new Function<String, String>() {
+        @Override
+        public String apply(String path) {
+            int index = path.lastIndexOf('/');
+            return index > 0 ? path.substring(0, index) : null;
+        }
+    };
+    private static final Function<VirtualFile, VirtualFile> FILE_PARENT = new Function<VirtualFile, VirtualFile>() {
+        @Override
+        public VirtualFile apply(VirtualFile file) {
+            return file.getParent();
+        }
+    };
+
     public static List<VirtualFile> pathsToFiles(Collection<String> paths) {
         final Set<String> converted = new LinkedHashSet<String>();
         for (String path : paths) {
@@ -38,4 +57,66 @@ public enum Vfs {
         }
         return vFiles;
     }
+
+    /**
+     * Reduce paths to minimal set of paths covering them all. Paths under other listed path are dropped
+     * and many siblings are replaced with their parent directory.
+     *
+     * @param paths system dependent paths
+     * @return converted covering paths
+     */
+    public static Set<String> collapseToCovering(Collection<String> paths) {
+        Set<String> converted = Sets.newHashSetWithExpectedSize(paths.size());
+        for (String path : paths) {
+            converted.add(FilePathsHelper.convertPath(path));
+        }
+        return collapseToCovering(converted, PATH_PARENT);
+    }
+
+    /**
+     * Reduce files to minimal set of files covering them all, same as {@link #collapseToCovering(Collection)}.
+     *
+     * @param files files to cover
+     * @return covering files
+     */
+    public static Set<VirtualFile> collapseFilesToCovering(Collection<VirtualFile> files) {
+        return collapseToCovering(Sets.newHashSet(files), FILE_PARENT);
+    }
+
+    private static <T> Set<T> collapseToCovering(Set<T> items, Function<T, T> parentOf) {
+        ListMultimap<T, T> byParent = ArrayListMultimap.create();
+        Set<T> candidates = Sets.newHashSet();
+        for (T item : items) {
+            T parent = parentOf.apply(item);
+            if (parent != null) {
+                byParent.put(parent, item);
+            } else {
+                candidates.add(item);
+            }
+        }
+        for (T parent : byParent.keySet()) {
+            List<T> siblings = byParent.get(parent);
+            if (siblings.size() > SIBLINGS_TO_PARENT) {
+                candidates.add(parent);
+            } else {
+                candidates.addAll(siblings);
+            }
+        }
+        Set<T> covering = new LinkedHashSet<T>();
+        for (T candidate : candidates) {
+            if (!hasAncestorIn(candidate, candidates, parentOf)) {
+                covering.add(candidate);
+            }
+        }
+        return covering;
+    }
+
+    private static <T> boolean hasAncestorIn(T item, Set<T> items, Function<T, T> parentOf) {
+        for (T current = parentOf.apply(item); current != null; current = parentOf.apply(current)) {
+            if (items.contains(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
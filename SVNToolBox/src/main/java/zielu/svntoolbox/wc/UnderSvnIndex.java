@@ -0,0 +1,194 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.wc;
+
+import com.intellij.ProjectTopics;
+import com.intellij.openapi.components.AbstractProjectComponent;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootAdapter;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.vcs.FileStatusListener;
+import com.intellij.openapi.vcs.FileStatusManager;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
+import com.intellij.openapi.vcs.VcsListener;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.util.Consumer;
+import com.intellij.util.containers.ConcurrentIntObjectMap;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.messages.MessageBusConnection;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.idea.svn.SvnVcs;
+import org.jetbrains.idea.svn.SvnStatusUtil;
+
+/**
+ * <p>In-memory index of project files known to be under Svn, keyed by VirtualFile id.</p>
+ * <p>Membership in Svn VCS roots is dropped whenever VCS mappings, project roots or Svn roots change.
+ * Version control state of files is additionally dropped on file status changes reported by change list updates.</p>
+ * <p>Each map has generation bumped before it is cleared, answers computed while generation changed are not stored,
+ * so state read before invalidation cannot outlive it. Maps are cleared when they outgrow their capacity.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+public class UnderSvnIndex extends AbstractProjectComponent {
+    private static final int MAX_ENTRIES = 100000;
+
+    private final Logger LOG = Logger.getInstance(getClass());
+
+    private final AtomicBoolean myActive = new AtomicBoolean();
+    //file is in VCS root mapped to Svn
+    private final ConcurrentIntObjectMap<Boolean> myUnderVcs = ContainerUtil.createConcurrentIntObjectMap();
+    //file is in Svn root and versioned
+    private final ConcurrentIntObjectMap<Boolean> myUnderSvn = ContainerUtil.createConcurrentIntObjectMap();
+    private final AtomicLong myUnderVcsGeneration = new AtomicLong();
+    private final AtomicLong myUnderSvnGeneration = new AtomicLong();
+
+    private MessageBusConnection myConnection;
+
+    public UnderSvnIndex(Project project) {
+        super(project);
+    }
+
+    public static UnderSvnIndex getInstance(@NotNull Project project) {
+        return project.getComponent(UnderSvnIndex.class);
+    }
+
+    @Override
+    public void initComponent() {
+        super.initComponent();
+        if (myActive.compareAndSet(false, true)) {
+            myConnection = myProject.getMessageBus().connect();
+            myConnection.subscribe(ProjectLevelVcsManager.VCS_CONFIGURATION_CHANGED, new VcsListener() {
+                @Override
+                public void directoryMappingChanged() {
+                    invalidate("VCS mappings changed");
+                }
+            });
+            myConnection.subscribe(SvnVcs.ROOTS_RELOADED, new Consumer<Boolean>() {
+                @Override
+                public void consume(Boolean reloaded) {
+                    invalidate("Svn roots reloaded");
+                }
+            });
+            myConnection.subscribe(ProjectTopics.PROJECT_ROOTS, new ModuleRootAdapter() {
+                @Override
+                public void rootsChanged(ModuleRootEvent event) {
+                    invalidate("Project roots changed");
+                }
+            });
+        }
+    }
+
+    @Override
+    public void projectOpened() {
+        super.projectOpened();
+        FileStatusManager.getInstance(myProject).addFileStatusListener(new FileStatusListener() {
+            @Override
+            public void fileStatusesChanged() {
+                myUnderSvnGeneration.incrementAndGet();
+                myUnderSvn.clear();
+            }
+
+            @Override
+            public void fileStatusChanged(@NotNull VirtualFile virtualFile) {
+                int id = idOf(virtualFile);
+                if (id != 0) {
+                    myUnderSvnGeneration.incrementAndGet();
+                    myUnderSvn.remove(id);
+                }
+            }
+        }, myProject);
+    }
+
+    @Override
+    public void disposeComponent() {
+        if (myActive.compareAndSet(true, false)) {
+            if (myConnection != null) {
+                myConnection.disconnect();
+            }
+            myUnderVcs.clear();
+            myUnderSvn.clear();
+        }
+        super.disposeComponent();
+    }
+
+    private void invalidate(String reason) {
+        myUnderVcsGeneration.incrementAndGet();
+        myUnderSvnGeneration.incrementAndGet();
+        myUnderVcs.clear();
+        myUnderSvn.clear();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Under Svn index invalidated: " + reason);
+        }
+    }
+
+    private static int idOf(@Nullable VirtualFile file) {
+        return file instanceof VirtualFileWithId ? ((VirtualFileWithId) file).getId() : 0;
+    }
+
+    /**
+     * @return <code>true</code> if file belongs to VCS root mapped to Svn
+     */
+    public boolean isUnderVcs(@NotNull VirtualFile file) {
+        int id = idOf(file);
+        if (id == 0) {
+            return computeUnderVcs(file);
+        }
+        Boolean cached = myUnderVcs.get(id);
+        if (cached == null) {
+            long generation = myUnderVcsGeneration.get();
+            cached = computeUnderVcs(file);
+            store(myUnderVcs, myUnderVcsGeneration, generation, id, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * @return <code>true</code> if file belongs to VCS root mapped to Svn and is under version control
+     */
+    public boolean isUnderSvn(@NotNull VirtualFile file) {
+        int id = idOf(file);
+        if (id == 0) {
+            return isUnderVcs(file) && SvnStatusUtil.isUnderControl(myProject, file);
+        }
+        Boolean cached = myUnderSvn.get(id);
+        if (cached == null) {
+            long generation = myUnderSvnGeneration.get();
+            cached = isUnderVcs(file) && SvnStatusUtil.isUnderControl(myProject, file);
+            store(myUnderSvn, myUnderSvnGeneration, generation, id, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Store answer unless map was invalidated since its computation started.
+     */
+    private void store(ConcurrentIntObjectMap<Boolean> map, AtomicLong generation, long computedAt, int id, boolean value) {
+        if (!myActive.get() || generation.get() != computedAt) {
+            return;
+        }
+        if (map.size() >= MAX_ENTRIES) {
+            map.clear();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Under Svn index outgrew " + MAX_ENTRIES + " entries, cleared");
+            }
+        }
+        map.put(id, value);
+        //invalidation that cleared map between check and put bumped generation first
+        if (generation.get() != computedAt) {
+            map.remove(id);
+        }
+    }
+
+    private boolean computeUnderVcs(VirtualFile file) {
+        SvnVcs svn = SvnVcs.getInstance(myProject);
+        return svn != null && ProjectLevelVcsManager.getInstance(myProject).checkAllFilesAreUnder(svn, new VirtualFile[]{file});
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.wc;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.messages.Topic;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * <p>Published when <code>.svn/wc.db</code> of known working copy root was modified,
+ * also by svn commands run outside of IDE.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+public interface WcDbChangeNotifier {
+    Topic<WcDbChangeNotifier> WC_DB_TOPIC = Topic.create("Svn wc.db changed", WcDbChangeNotifier.class);
+
+    void wcDbChanged(@NotNull VirtualFile root);
+}
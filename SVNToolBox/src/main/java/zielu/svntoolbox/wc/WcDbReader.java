@@ -0,0 +1,145 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.wc;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.File;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import org.jetbrains.annotations.NotNull;
+import org.tmatesoft.sqljet.core.SqlJetException;
+import org.tmatesoft.sqljet.core.SqlJetTransactionMode;
+import org.tmatesoft.sqljet.core.table.ISqlJetCursor;
+import org.tmatesoft.sqljet.core.table.SqlJetDb;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+
+/**
+ * <p>Reads working copy metadata directly from <code>.svn/wc.db</code> without spawning svn processes.</p>
+ * <p>Database is opened read-only, whole working copy is read with single pass over <code>NODES</code> table
+ * and reduced to index of switched subtrees.
+ * Supported are formats written by Svn 1.7 (29) and Svn 1.8 - 1.14 (31).</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+public class WcDbReader {
+    private static final Logger LOG = Logger.getInstance(WcDbReader.class);
+
+    public static final int FORMAT_SVN_1_7 = 29;
+    public static final int FORMAT_SVN_1_8 = 31;
+    private static final Set<Integer> SUPPORTED_FORMATS = ImmutableSet.of(FORMAT_SVN_1_7, FORMAT_SVN_1_8);
+    private static final Set<String> PRESENT = ImmutableSet.of("normal", "incomplete");
+
+    private WcDbReader() {
+    }
+
+    @NotNull
+    public static File getDbFile(@NotNull File wcRoot) {
+        return new File(new File(wcRoot, ".svn"), "wc.db");
+    }
+
+    public static boolean isSupported(int format) {
+        return SUPPORTED_FORMATS.contains(format);
+    }
+
+    /**
+     * Read BASE nodes of working copy.
+     *
+     * @param wcRoot working copy root directory
+     * @return snapshot or absent if wc.db is missing, unreadable or in unsupported format
+     */
+    public static Optional<WcDbSnapshot> read(@NotNull File wcRoot) {
+        File dbFile = getDbFile(wcRoot);
+        if (!dbFile.isFile()) {
+            return Optional.absent();
+        }
+        try {
+            SqlJetDb db = SqlJetDb.open(dbFile, false);
+            try {
+                db.beginTransaction(SqlJetTransactionMode.READ_ONLY);
+                try {
+                    int format = db.getOptions().getUserVersion();
+                    if (!isSupported(format)) {
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("Unsupported wc.db format " + format + " in " + wcRoot);
+                        }
+                        return Optional.absent();
+                    }
+                    Map<Long, SVNURL> repositories = readRepositories(db);
+                    Map<String, WcDbSnapshot.Node> nodes = readNodes(db, repositories);
+                    return Optional.of(new WcDbSnapshot(wcRoot, format, switchedOf(nodes)));
+                } finally {
+                    db.commit();
+                }
+            } finally {
+                db.close();
+            }
+        } catch (SqlJetException e) {
+            LOG.warn("Could not read " + dbFile, e);
+        } catch (SVNException e) {
+            LOG.warn("Invalid repository root in " + dbFile, e);
+        }
+        return Optional.absent();
+    }
+
+    private static Map<Long, SVNURL> readRepositories(SqlJetDb db) throws SqlJetException, SVNException {
+        Map<Long, SVNURL> repositories = Maps.newHashMap();
+        ISqlJetCursor cursor = db.getTable("REPOSITORY").open();
+        try {
+            while (!cursor.eof()) {
+                repositories.put(cursor.getInteger("id"), SVNURL.parseURIEncoded(cursor.getString("root")));
+                cursor.next();
+            }
+        } finally {
+            cursor.close();
+        }
+        return repositories;
+    }
+
+    private static Map<String, WcDbSnapshot.Node> readNodes(SqlJetDb db, Map<Long, SVNURL> repositories) throws SqlJetException {
+        Map<String, WcDbSnapshot.Node> nodes = Maps.newHashMap();
+        ISqlJetCursor cursor = db.getTable("NODES").open();
+        try {
+            while (!cursor.eof()) {
+                if (cursor.getInteger("op_depth") == 0
+                        && PRESENT.contains(cursor.getString("presence"))
+                        && !cursor.isNull("repos_id")) {
+                    SVNURL repository = repositories.get(cursor.getInteger("repos_id"));
+                    String reposPath = cursor.getString("repos_path");
+                    if (repository != null && reposPath != null) {
+                        nodes.put(cursor.getString("local_relpath"), new WcDbSnapshot.Node(repository, reposPath));
+                    }
+                }
+                cursor.next();
+            }
+        } finally {
+            cursor.close();
+        }
+        return nodes;
+    }
+
+    private static Map<String, WcDbSnapshot.Node> switchedOf(Map<String, WcDbSnapshot.Node> nodes) {
+        Map<String, WcDbSnapshot.Node> switched = Maps.newHashMap();
+        for (Entry<String, WcDbSnapshot.Node> entry : nodes.entrySet()) {
+            String relPath = entry.getKey();
+            WcDbSnapshot.Node node = entry.getValue();
+            if (relPath.isEmpty()) {
+                switched.put(relPath, node);
+            } else {
+                WcDbSnapshot.Node parent = nodes.get(WcDbSnapshot.parentOf(relPath));
+                if (parent == null || !node.isChildOf(parent, WcDbSnapshot.nameOf(relPath))) {
+                    switched.put(relPath, node);
+                }
+            }
+        }
+        return ImmutableMap.copyOf(switched);
+    }
+}
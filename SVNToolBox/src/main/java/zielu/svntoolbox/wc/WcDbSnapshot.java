@@ -0,0 +1,165 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.wc;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.Sets;
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import org.jetbrains.annotations.NotNull;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+
+/**
+ * <p>Immutable index of switched subtrees of single working copy derived from <code>.svn/wc.db</code>.</p>
+ * <p>Only working copy root and switched nodes are kept - node is switched when its repository path
+ * is not its parent path plus its name. Every other node inherits location from nearest switched ancestor.</p>
+ * <p>Paths passed to queries are relative to working copy root, use <code>/</code> as separator
+ * and empty string for the root itself - same as <code>local_relpath</code> column.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+public class WcDbSnapshot {
+    private final File myRoot;
+    private final int myFormat;
+    private final Map<String, Node> mySwitched;
+
+    WcDbSnapshot(File root, int format, Map<String, Node> switched) {
+        myRoot = root;
+        myFormat = format;
+        mySwitched = switched;
+    }
+
+    public File getRoot() {
+        return myRoot;
+    }
+
+    public int getFormat() {
+        return myFormat;
+    }
+
+    /**
+     * @return number of indexed nodes - root and switched subtrees
+     */
+    public int size() {
+        return mySwitched.size();
+    }
+
+    static String parentOf(String relPath) {
+        int lastSlash = relPath.lastIndexOf('/');
+        return lastSlash < 0 ? "" : relPath.substring(0, lastSlash);
+    }
+
+    static String nameOf(String relPath) {
+        return relPath.substring(relPath.lastIndexOf('/') + 1);
+    }
+
+    static String join(String parent, String name) {
+        return parent.isEmpty() ? name : parent + "/" + name;
+    }
+
+    /**
+     * Derive repository location of path from its nearest indexed ancestor.
+     * Only root and switched subtrees are indexed, so versioned state of path itself is not checked -
+     * callers must make sure path is under version control.
+     *
+     * @param relPath path relative to working copy root
+     * @return location path would have in repository
+     */
+    public Optional<SVNURL> getUrl(@NotNull String relPath) {
+        String current = relPath;
+        Node node = mySwitched.get(current);
+        while (node == null && !current.isEmpty()) {
+            current = parentOf(current);
+            node = mySwitched.get(current);
+        }
+        if (node != null) {
+            String suffix = current.length() == relPath.length() ? ""
+                    : relPath.substring(current.isEmpty() ? 0 : current.length() + 1);
+            String reposPath = suffix.isEmpty() ? node.reposPath : join(node.reposPath, suffix);
+            if (reposPath.isEmpty()) {
+                return Optional.of(node.repository);
+            }
+            try {
+                return Optional.of(node.repository.appendPath(reposPath, false));
+            } catch (SVNException e) {
+                return Optional.absent();
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Check if node is switched i.e. its repository path is not parent path plus its name.
+     *
+     * @param relPath path relative to working copy root
+     * @return <code>true</code> if node is switched, root is never considered switched
+     */
+    public boolean isSwitched(@NotNull String relPath) {
+        return !relPath.isEmpty() && mySwitched.containsKey(relPath);
+    }
+
+    public Set<String> getSwitchedPaths() {
+        Set<String> paths = Sets.newHashSet(mySwitched.keySet());
+        paths.remove("");
+        return Collections.unmodifiableSet(paths);
+    }
+
+    /**
+     * Find nodes that changed location since previous snapshot of the same working copy.
+     *
+     * @param previous earlier snapshot
+     * @return paths of switched subtree roots whose location changed, empty string denotes working copy root
+     */
+    public Set<String> changedSince(@NotNull WcDbSnapshot previous) {
+        Set<String> changed = Sets.newHashSet();
+        for (String path : Sets.union(mySwitched.keySet(), previous.mySwitched.keySet())) {
+            if (!Objects.equal(mySwitched.get(path), previous.mySwitched.get(path))) {
+                changed.add(path);
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public String toString() {
+        return "WcDbSnapshot[" + myRoot + ", format=" + myFormat + ", switched=" + (mySwitched.size() - 1) + "]";
+    }
+
+    static class Node {
+        final SVNURL repository;
+        final String reposPath;
+
+        Node(SVNURL repository, String reposPath) {
+            this.repository = repository;
+            this.reposPath = reposPath;
+        }
+
+        boolean isChildOf(Node parent, String name) {
+            return repository.equals(parent.repository) && reposPath.equals(join(parent.reposPath, name));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Node node = (Node) o;
+            return repository.equals(node.repository) && reposPath.equals(node.reposPath);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * repository.hashCode() + reposPath.hashCode();
+        }
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.wc;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Sets;
+import com.intellij.openapi.components.AbstractProjectComponent;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.LocalFileSystem.WatchRequest;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.util.Consumer;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.messages.MessageBusConnection;
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.idea.svn.RootUrlInfo;
+import org.jetbrains.idea.svn.SvnVcs;
+import zielu.svntoolbox.SvnToolBoxApp;
+import zielu.svntoolbox.util.LogStopwatch;
+import zielu.svntoolbox.util.MfSupplier;
+
+/**
+ * <p>In-memory index of Svn working copy roots of a project.</p>
+ * <p>Index is built once from Svn root mappings and kept current from VFS events for <code>.svn</code> directories,
+ * so root lookups are plain ancestor checks without file system access.</p>
+ * <p><code>.svn/wc.db</code> of every root is watched by IDE file watcher, so changes made by svn commands run
+ * outside of IDE are published to {@link WcDbChangeNotifier}.</p>
+ * <p>Snapshots of watched roots are considered fresh until change event for their wc.db arrives, so lookups do not
+ * touch file system. Only one thread reads wc.db of given root at a time, others wait for and share its result.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+public class WorkingCopyRoots extends AbstractProjectComponent {
+    private final Logger LOG = Logger.getInstance(getClass());
+
+    private static final String ADMIN_DIR = ".svn";
+    private static final String DB_FILE = "wc.db";
+
+    private final AtomicBoolean myActive = new AtomicBoolean();
+    private final Object myBuildLock = new Object();
+
+    private final Map<VirtualFile, SnapshotSlot> mySnapshots = new ConcurrentHashMap<VirtualFile, SnapshotSlot>();
+    private final Map<VirtualFile, WatchRequest> myWatches = new ConcurrentHashMap<VirtualFile, WatchRequest>();
+
+    private volatile Set<VirtualFile> myRoots;
+
+    private MessageBusConnection myConnection;
+
+    public WorkingCopyRoots(Project project) {
+        super(project);
+    }
+
+    public static WorkingCopyRoots getInstance(@NotNull Project project) {
+        return project.getComponent(WorkingCopyRoots.class);
+    }
+
+    @Override
+    public void initComponent() {
+        super.initComponent();
+        if (myActive.compareAndSet(false, true)) {
+            myConnection = myProject.getMessageBus().connect();
+            myConnection.subscribe(SvnVcs.ROOTS_RELOADED, new Consumer<Boolean>() {
+                @Override
+                public void consume(Boolean reloaded) {
+                    invalidate();
+                }
+            });
+            myConnection.subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener() {
+                @Override
+                public void before(@NotNull List<? extends VFileEvent> events) {
+                    for (VFileEvent event : events) {
+                        if (event instanceof VFileDeleteEvent) {
+                            rootsRemoved(event.getFile());
+                        } else if (event instanceof VFileMoveEvent) {
+                            rootsRemoved(event.getFile());
+                        } else if (event instanceof VFilePropertyChangeEvent
+                                && VirtualFile.PROP_NAME.equals(((VFilePropertyChangeEvent) event).getPropertyName())) {
+                            rootsRemoved(event.getFile());
+                        }
+                    }
+                }
+
+                @Override
+                public void after(@NotNull List<? extends VFileEvent> events) {
+                    for (VFileEvent event : events) {
+                        if (event instanceof VFileContentChangeEvent) {
+                            wcDbChanged(event.getFile());
+                        } else if (event instanceof VFileCreateEvent) {
+                            VFileCreateEvent createEvent = (VFileCreateEvent) event;
+                            if (createEvent.isDirectory() && ADMIN_DIR.equals(createEvent.getChildName())) {
+                                rootAdded(createEvent.getParent());
+                            }
+                        } else if (event instanceof VFileMoveEvent || event instanceof VFilePropertyChangeEvent) {
+                            VirtualFile file = event.getFile();
+                            if (file != null && file.isDirectory() && file.findChild(ADMIN_DIR) != null) {
+                                rootAdded(file);
+                            }
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void disposeComponent() {
+        if (myActive.compareAndSet(true, false)) {
+            if (myConnection != null) {
+                myConnection.disconnect();
+            }
+            myRoots = null;
+            mySnapshots.clear();
+            unwatchAll();
+        }
+        super.disposeComponent();
+    }
+
+    private void wcDbChanged(@Nullable VirtualFile file) {
+        if (file == null || !DB_FILE.equals(file.getName())) {
+            return;
+        }
+        VirtualFile adminDir = file.getParent();
+        if (adminDir != null && ADMIN_DIR.equals(adminDir.getName())) {
+            VirtualFile root = adminDir.getParent();
+            Set<VirtualFile> roots = myRoots;
+            if (root != null && roots != null && roots.contains(root)) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("WC db changed: " + root.getPath());
+                }
+                slotFor(root).changes.incrementAndGet();
+                myProject.getMessageBus().syncPublisher(WcDbChangeNotifier.WC_DB_TOPIC).wcDbChanged(root);
+            }
+        }
+    }
+
+    private void watch(final Collection<VirtualFile> roots) {
+        //registering watch refreshes VFS, do it away from read actions lookups run in
+        SvnToolBoxApp.getInstance().submitUpkeep(myProject, new Runnable() {
+            @Override
+            public void run() {
+                LocalFileSystem fs = LocalFileSystem.getInstance();
+                for (VirtualFile root : roots) {
+                    if (!myActive.get()) {
+                        return;
+                    }
+                    if (!myWatches.containsKey(root)) {
+                        File dbFile = WcDbReader.getDbFile(VfsUtilCore.virtualToIoFile(root));
+                        WatchRequest request = fs.addRootToWatch(dbFile.getPath(), false);
+                        if (request != null) {
+                            //file must be known to VFS to get its change events
+                            fs.refreshAndFindFileByIoFile(dbFile);
+                            myWatches.put(root, request);
+                            //changes made before watch was registered were not reported, force single reload
+                            slotFor(root).changes.incrementAndGet();
+                        }
+                    }
+                }
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("WC db watches: " + myWatches.size());
+                }
+            }
+        });
+    }
+
+    private void unwatch(VirtualFile root) {
+        WatchRequest request = myWatches.remove(root);
+        if (request != null) {
+            LocalFileSystem.getInstance().removeWatchedRoot(request);
+        }
+    }
+
+    private void unwatchAll() {
+        Set<WatchRequest> requests = Sets.newHashSet(myWatches.values());
+        myWatches.clear();
+        LocalFileSystem.getInstance().removeWatchedRoots(requests);
+    }
+
+    private void rootAdded(VirtualFile root) {
+        Set<VirtualFile> roots = myRoots;
+        if (roots != null && roots.add(root)) {
+            watch(Collections.singleton(root));
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("WC root added: " + root.getPath());
+            }
+        }
+    }
+
+    private void rootsRemoved(@Nullable VirtualFile file) {
+        Set<VirtualFile> roots = myRoots;
+        if (file == null || roots == null) {
+            return;
+        }
+        if (ADMIN_DIR.equals(file.getName())) {
+            VirtualFile parent = file.getParent();
+            if (parent != null && roots.remove(parent)) {
+                unwatch(parent);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("WC root removed: " + parent.getPath());
+                }
+            }
+        } else if (file.isDirectory()) {
+            for (VirtualFile root : roots) {
+                if (VfsUtilCore.isAncestor(file, root, false)) {
+                    //moved or deleted roots will be found again on next lookup
+                    invalidate();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void invalidate() {
+        myRoots = null;
+        mySnapshots.clear();
+        unwatchAll();
+        LOG.debug("WC roots invalidated");
+    }
+
+    private Set<VirtualFile> ensureBuilt() {
+        Set<VirtualFile> roots = myRoots;
+        if (roots == null) {
+            synchronized (myBuildLock) {
+                roots = myRoots;
+                if (roots == null) {
+                    roots = build();
+                    myRoots = roots;
+                    if (myActive.get()) {
+                        watch(Sets.newHashSet(roots));
+                    }
+                }
+            }
+        }
+        return roots;
+    }
+
+    private Set<VirtualFile> build() {
+        Set<VirtualFile> roots = ContainerUtil.newConcurrentSet();
+        SvnVcs svn = SvnVcs.getInstance(myProject);
+        if (svn != null) {
+            for (RootUrlInfo info : svn.getSvnFileUrlMapping().getAllWcInfos()) {
+                VirtualFile root = info.getVirtualFile();
+                if (root != null) {
+                    roots.add(root);
+                }
+            }
+            for (VirtualFile vcsRoot : ProjectLevelVcsManager.getInstance(myProject).getRootsUnderVcs(svn)) {
+                for (VirtualFile current = vcsRoot; current != null; current = current.getParent()) {
+                    if (current.findChild(ADMIN_DIR) != null) {
+                        roots.add(current);
+                        break;
+                    }
+                }
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("WC roots built: " + roots);
+        }
+        return roots;
+    }
+
+    /**
+     * Find working copy root for given file.
+     *
+     * @param file file to find root for
+     * @return nearest working copy root being file itself or its ancestor
+     */
+    public Optional<VirtualFile> getRootFor(@NotNull VirtualFile file) {
+        Set<VirtualFile> roots = ensureBuilt();
+        for (VirtualFile current = file; current != null; current = current.getParent()) {
+            if (roots.contains(current)) {
+                return Optional.of(current);
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Find working copy roots holding any file under given directory.
+     *
+     * @param directory directory to check
+     * @return root containing directory and all roots nested under it
+     */
+    public Set<VirtualFile> getRootsCovering(@NotNull VirtualFile directory) {
+        Set<VirtualFile> covering = Sets.newHashSet(getRootFor(directory).asSet());
+        for (VirtualFile root : ensureBuilt()) {
+            if (VfsUtilCore.isAncestor(directory, root, true)) {
+                covering.add(root);
+            }
+        }
+        return covering;
+    }
+
+    private SnapshotSlot slotFor(VirtualFile root) {
+        SnapshotSlot slot = mySnapshots.get(root);
+        if (slot == null) {
+            SnapshotSlot newSlot = new SnapshotSlot();
+            slot = mySnapshots.putIfAbsent(root, newSlot);
+            if (slot == null) {
+                slot = newSlot;
+            }
+        }
+        return slot;
+    }
+
+    private boolean isFresh(VirtualFile root, SnapshotSlot slot) {
+        if (slot.snapshot == null) {
+            return false;
+        } else if (myWatches.containsKey(root)) {
+            return slot.loadedAt == slot.changes.get();
+        } else {
+            File dbFile = WcDbReader.getDbFile(VfsUtilCore.virtualToIoFile(root));
+            return slot.modified == dbFile.lastModified() && slot.length == dbFile.length();
+        }
+    }
+
+    /**
+     * Get wc.db metadata of working copy root.
+     * Cached snapshot of watched root is reused until its wc.db change is reported, snapshot of root that is not
+     * watched (yet) is reused as long as wc.db was not modified.
+     *
+     * @param root working copy root
+     * @return snapshot or absent if wc.db cannot be read
+     */
+    public Optional<WcDbSnapshot> getSnapshot(@NotNull VirtualFile root) {
+        SnapshotSlot slot = slotFor(root);
+        if (isFresh(root, slot)) {
+            return slot.snapshot;
+        }
+        synchronized (slot) {
+            if (isFresh(root, slot)) {
+                //loaded by other thread while this one waited
+                return slot.snapshot;
+            }
+            long changes = slot.changes.get();
+            File rootFile = VfsUtilCore.virtualToIoFile(root);
+            File dbFile = WcDbReader.getDbFile(rootFile);
+            long modified = dbFile.lastModified();
+            long length = dbFile.length();
+            LogStopwatch watch = LogStopwatch.debugStopwatch(LOG, new MfSupplier("Read wc.db of {0}", root.getPath())).start();
+            Optional<WcDbSnapshot> snapshot = WcDbReader.read(rootFile);
+            watch.stop();
+            slot.modified = modified;
+            slot.length = length;
+            slot.loadedAt = changes;
+            slot.snapshot = snapshot;
+            if (slot.diffed == null && snapshot.isPresent()) {
+                slot.diffed = snapshot.get();
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if wc.db of root was read and its snapshot can be compared with later state
+     */
+    public boolean hasSnapshot(@NotNull VirtualFile root) {
+        SnapshotSlot slot = mySnapshots.get(root);
+        return slot != null && slot.diffed != null;
+    }
+
+    /**
+     * Re-read wc.db of working copy root and report switched subtrees that changed since last refresh.
+     * Changes are reported against snapshot seen by previous refresh, not against one loaded by lookups in between,
+     * so lookup that reads already changed wc.db does not hide the change.
+     *
+     * @param root working copy root
+     * @return paths relative to root whose location changed, absent when previously indexed root can no longer
+     * be read and whole root should be considered changed
+     */
+    public Optional<Set<String>> refreshSnapshot(@NotNull VirtualFile root) {
+        SnapshotSlot slot = slotFor(root);
+        slot.changes.incrementAndGet();
+        Optional<WcDbSnapshot> current = getSnapshot(root);
+        WcDbSnapshot previous;
+        synchronized (slot) {
+            previous = slot.diffed;
+            if (current.isPresent()) {
+                slot.diffed = current.get();
+            }
+        }
+        if (previous == null) {
+            return Optional.of(Collections.<String>emptySet());
+        } else if (current.isPresent()) {
+            Set<String> changed = current.get().changedSince(previous);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Switched subtrees changed in " + root.getPath() + ": " + changed);
+            }
+            return Optional.of(changed);
+        }
+        return Optional.absent();
+    }
+
+    private static class SnapshotSlot {
+        /**
+         * Number of reported wc.db changes
+         */
+        final AtomicLong changes = new AtomicLong();
+        /**
+         * Result of last read, <code>null</code> until first read
+         */
+        volatile Optional<WcDbSnapshot> snapshot;
+        volatile long loadedAt = -1;
+        volatile long modified;
+        volatile long length;
+        /**
+         * Snapshot later refresh computes changes against, advanced only by refresh
+         */
+        volatile WcDbSnapshot diffed;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.projectView;
+
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.ThrowableComputable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import zielu.svntoolbox.config.SvnToolBoxAppState;
+import zielu.svntoolbox.wc.WorkingCopyRoots;
+
+/**
+ * <p>Hammers status cache with concurrent writers, readers and trimming, then checks its tree, counts
+ * and decorated ancestor links are still consistent.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+public class ProjectViewStatusCacheStressTest extends LightPlatformCodeInsightFixtureTestCase {
+    private static final int DIRS = 10;
+    private static final int SUB_DIRS = 10;
+    private static final int FILES = 15;
+    private static final int WRITERS = 4;
+    private static final int READERS = 2;
+    private static final int ITERATIONS = 20000;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private static final List<ProjectViewStatus> STATUSES = ImmutableList.of(ProjectViewStatus.EMPTY,
+            ProjectViewStatus.PENDING, new ProjectViewStatus("trunk"), new ProjectViewStatus("feature"));
+
+    private final List<VirtualFile> myDirs = Lists.newArrayList();
+    private final List<VirtualFile> myFiles = Lists.newArrayList();
+    private final Queue<Throwable> myErrors = new ConcurrentLinkedQueue<Throwable>();
+    private ProjectViewStatusCache myCache;
+    private int myCapacity;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myCapacity = SvnToolBoxAppState.getInstance().statusCacheCapacity;
+        final VirtualFile root = myFixture.getTempDirFixture().findOrCreateDir("wc");
+        ApplicationManager.getApplication().runWriteAction(new ThrowableComputable<Object, IOException>() {
+            @Override
+            public Object compute() throws IOException {
+                myDirs.add(root);
+                for (int i = 0; i < DIRS; i++) {
+                    VirtualFile dir = root.createChildDirectory(this, "dir" + i);
+                    myDirs.add(dir);
+                    for (int j = 0; j < SUB_DIRS; j++) {
+                        VirtualFile subDir = dir.createChildDirectory(this, "sub" + j);
+                        myDirs.add(subDir);
+                        for (int k = 0; k < FILES; k++) {
+                            myFiles.add(subDir.createChildData(this, "File" + k + ".java"));
+                        }
+                    }
+                }
+                return null;
+            }
+        });
+        WorkingCopyRoots roots = WorkingCopyRoots.getInstance(getProject());
+        //build roots up front so cache does not ask VCS from worker threads
+        roots.getRootFor(root);
+        myCache = new ProjectViewStatusCache(Suppliers.ofInstance(0), roots, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            SvnToolBoxAppState.getInstance().statusCacheCapacity = myCapacity;
+            myCache.dispose();
+            myDirs.clear();
+            myFiles.clear();
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    public void testConcurrentAddEvictAndGetKeepCacheConsistent() throws Exception {
+        List<Runnable> tasks = Lists.newArrayList();
+        for (int i = 0; i < WRITERS; i++) {
+            tasks.add(new Writer(i));
+        }
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        for (int i = 0; i < READERS; i++) {
+            final Random random = new Random(100 + i);
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    while (writing.get()) {
+                        ProjectViewStatus status = myCache.get(randomFile(random));
+                        if (status != null && !STATUSES.contains(status)) {
+                            throw new AssertionError("Unexpected status " + status);
+                        }
+                    }
+                }
+            });
+        }
+        runConcurrently(tasks.subList(0, WRITERS), tasks.subList(WRITERS, tasks.size()), writing);
+
+        StatusCacheConsistency.check(myCache, allFiles().keySet());
+    }
+
+    public void testDirectoryStatusChangesRelinkDescendants() {
+        VirtualFile dir = myDirs.get(1);
+        VirtualFile subDir = dir.findChild("sub0");
+        VirtualFile file = subDir.findChild("File0.java");
+        ProjectViewStatus trunk = STATUSES.get(2);
+
+        myCache.add(file, ProjectViewStatus.EMPTY);
+        myCache.add(dir, trunk);
+        StatusCacheConsistency.check(myCache, allFiles().keySet());
+        assertEquals("Status of decorated ancestor is not repeated", ProjectViewStatus.EMPTY,
+                myCache.add(file, trunk).getFinalStatus());
+
+        myCache.add(subDir, STATUSES.get(3));
+        StatusCacheConsistency.check(myCache, allFiles().keySet());
+        assertEquals(trunk, myCache.add(file, trunk).getFinalStatus());
+
+        myCache.add(subDir, ProjectViewStatus.EMPTY);
+        myCache.evict(dir);
+        StatusCacheConsistency.check(myCache, allFiles().keySet());
+        assertEquals(trunk, myCache.add(file, trunk).getFinalStatus());
+
+        myCache.evictAll(dir);
+        StatusCacheConsistency.check(myCache, allFiles().keySet());
+        assertEquals(0, myCache.getSize());
+    }
+
+    public void testLookupsAndEdtWritesDoNotWaitForWriters() throws Exception {
+        final VirtualFile file = myFiles.get(0);
+        myCache.add(file, STATUSES.get(2));
+        final ProjectViewStatus[] found = new ProjectViewStatus[1];
+        final ProjectViewStatusCache.PutResult[] tried = new ProjectViewStatusCache.PutResult[1];
+        Thread lookup = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                found[0] = myCache.get(file);
+                tried[0] = myCache.tryAdd(myFiles.get(1), STATUSES.get(3));
+            }
+        });
+        myCache.getWriteLock().lock();
+        try {
+            lookup.start();
+            lookup.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            assertFalse("Lookup waits for write lock", lookup.isAlive());
+        } finally {
+            myCache.getWriteLock().unlock();
+        }
+        assertEquals(STATUSES.get(2), found[0]);
+        assertNull("Busy cache accepted write", tried[0]);
+    }
+
+    public void testTrimmingRacesWithWritersAndReaders() throws Exception {
+        SvnToolBoxAppState.getInstance().statusCacheCapacity = 1000;
+        final int capacity = SvnToolBoxAppState.getInstance().getStatusCacheCapacity();
+        assertTrue(myDirs.size() + myFiles.size() > capacity);
+
+        List<Runnable> writers = Lists.newArrayList();
+        for (int i = 0; i < WRITERS; i++) {
+            writers.add(new Writer(i));
+        }
+        writers.add(new Runnable() {
+            @Override
+            public void run() {
+                //keeps pushing cache over capacity so trims overlap with other writers
+                for (int i = 0; i < ITERATIONS / 100; i++) {
+                    myCache.addAll(allFiles(STATUSES.get(i % STATUSES.size())));
+                }
+            }
+        });
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        List<Runnable> readers = Lists.newArrayList();
+        for (int i = 0; i < READERS; i++) {
+            final Random random = new Random(200 + i);
+            readers.add(new Runnable() {
+                @Override
+                public void run() {
+                    while (writing.get()) {
+                        myCache.get(randomFile(random));
+                    }
+                }
+            });
+        }
+        runConcurrently(writers, readers, writing);
+        myCache.addAll(allFiles(ProjectViewStatus.EMPTY));
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (myCache.getSize() > capacity && System.currentTimeMillis() < deadline) {
+            //trim requested while previous one was running is skipped, next add requests it again
+            myCache.add(myFiles.get(0), STATUSES.get(2));
+            Thread.sleep(50);
+        }
+        assertTrue("Cache was not trimmed, size=" + myCache.getSize(), myCache.getSize() <= capacity);
+        StatusCacheConsistency.check(myCache, allFiles().keySet());
+    }
+
+    private void runConcurrently(List<Runnable> writers, List<Runnable> readers, AtomicBoolean writing) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writerThreads = startAll(writers, start);
+        List<Thread> readerThreads = startAll(readers, start);
+        start.countDown();
+        try {
+            joinAll(writerThreads);
+        } finally {
+            writing.set(false);
+        }
+        joinAll(readerThreads);
+        for (Throwable error : myErrors) {
+            throw new AssertionError(error);
+        }
+    }
+
+    private List<Thread> startAll(List<Runnable> tasks, final CountDownLatch start) {
+        List<Thread> threads = Lists.newArrayList();
+        for (final Runnable task : tasks) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        task.run();
+                    } catch (Throwable e) {
+                        myErrors.add(e);
+                    }
+                }
+            }, getClass().getSimpleName() + "-" + threads.size());
+            thread.start();
+            threads.add(thread);
+        }
+        return threads;
+    }
+
+    private void joinAll(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            assertFalse(thread.getName() + " did not finish", thread.isAlive());
+        }
+    }
+
+    private Map<VirtualFile, ProjectViewStatus> allFiles() {
+        return allFiles(ProjectViewStatus.EMPTY);
+    }
+
+    private Map<VirtualFile, ProjectViewStatus> allFiles(ProjectViewStatus status) {
+        Map<VirtualFile, ProjectViewStatus> statuses = Maps.newHashMap();
+        for (VirtualFile dir : myDirs) {
+            statuses.put(dir, status);
+        }
+        for (VirtualFile file : myFiles) {
+            statuses.put(file, status);
+        }
+        return statuses;
+    }
+
+    private VirtualFile randomFile(Random random) {
+        int index = random.nextInt(myDirs.size() + myFiles.size());
+        return index < myDirs.size() ? myDirs.get(index) : myFiles.get(index - myDirs.size());
+    }
+
+    private class Writer implements Runnable {
+        private final Random myRandom;
+
+        private Writer(int seed) {
+            myRandom = new Random(seed);
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < ITERATIONS; i++) {
+                ProjectViewStatus status = STATUSES.get(myRandom.nextInt(STATUSES.size()));
+                switch (myRandom.nextInt(6)) {
+                    case 0:
+                        //directory statuses flip between decorated and empty to force relinking
+                        myCache.add(myDirs.get(myRandom.nextInt(myDirs.size())), status);
+                        break;
+                    case 1:
+                        myCache.add(randomFile(myRandom), status, 0);
+                        break;
+                    case 2:
+                        Map<VirtualFile, ProjectViewStatus> batch = Maps.newHashMap();
+                        for (int j = 0; j < 10; j++) {
+                            batch.put(randomFile(myRandom), status);
+                        }
+                        myCache.addAll(batch);
+                        break;
+                    case 3:
+                        myCache.tryAdd(randomFile(myRandom), status);
+                        break;
+                    case 4:
+                        myCache.evict(randomFile(myRandom));
+                        break;
+                    default:
+                        myCache.evictAll(myDirs.get(1 + myRandom.nextInt(myDirs.size() - 1)));
+                        break;
+                }
+            }
+        }
+    }
+}
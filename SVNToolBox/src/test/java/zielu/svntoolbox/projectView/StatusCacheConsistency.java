@@ -0,0 +1,67 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.projectView;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.Sets;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * <p>Checks status cache against files it may hold: count of statuses, nodes linking them into tree
+ * and nearest decorated ancestor of each cached file.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+class StatusCacheConsistency {
+    private StatusCacheConsistency() {
+    }
+
+    /**
+     * @param cache cache to check, writers are held off for the duration of the check
+     * @param files all files that could have been added to cache
+     */
+    static void check(ProjectViewStatusCache cache, Collection<VirtualFile> files) {
+        cache.getWriteLock().lock();
+        try {
+            int cached = 0;
+            Set<VirtualFile> nodes = Sets.newHashSet();
+            for (VirtualFile file : files) {
+                if (cache.get(file) != null) {
+                    cached++;
+                    //cached file is linked into tree by all its ancestors, nothing else is kept
+                    VirtualFile current = file;
+                    while (current != null && nodes.add(current)) {
+                        current = current.getParent();
+                    }
+                    assertEquals("Decorated ancestor of " + file.getPath(), idOf(nearestDecoratedAncestor(cache, file)),
+                            cache.getDecoratedAncestorId(file));
+                }
+            }
+            assertEquals("Cached statuses", cached, cache.getSize());
+            assertEquals("Nodes", nodes.size(), cache.getNodeCount());
+        } finally {
+            cache.getWriteLock().unlock();
+        }
+    }
+
+    private static VirtualFile nearestDecoratedAncestor(ProjectViewStatusCache cache, VirtualFile file) {
+        for (VirtualFile parent = file.getParent(); parent != null; parent = parent.getParent()) {
+            ProjectViewStatus status = cache.get(parent);
+            if (status != null && !status.isEmpty()) {
+                return parent;
+            }
+        }
+        return null;
+    }
+
+    private static int idOf(VirtualFile file) {
+        return file != null ? ((VirtualFileWithId) file).getId() : 0;
+    }
+}
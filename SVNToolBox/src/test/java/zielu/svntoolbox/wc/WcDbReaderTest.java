@@ -0,0 +1,137 @@
+/*
+ * $Id$
+ */
+package zielu.svntoolbox.wc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tmatesoft.svn.core.SVNURL;
+
+/**
+ * <p>Reads wc.db of working copies checked out from local <code>file://</code> repository with svn command line
+ * client, tests are skipped when svn is not installed.</p>
+ * <br/>
+ * <p>Created on 17.10.26</p>
+ *
+ * @author Lukasz Zielinski
+ */
+public class WcDbReaderTest {
+    private static final long COMMAND_TIMEOUT_SECONDS = 60;
+
+    @Rule
+    public TemporaryFolder myTemp = new TemporaryFolder();
+
+    private String myRepositoryUrl;
+    private File myWc;
+
+    @BeforeClass
+    public static void checkSvnInstalled() {
+        Assume.assumeTrue("svn command line client not installed", isInstalled("svn") && isInstalled("svnadmin"));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        File repository = myTemp.newFolder("repository");
+        run(myTemp.getRoot(), "svnadmin", "create", repository.getPath());
+        myRepositoryUrl = SVNURL.fromFile(repository).toString();
+        run(myTemp.getRoot(), "svn", "mkdir", "--non-interactive", "--parents", "-m", "layout",
+                myRepositoryUrl + "/trunk/module/src",
+                myRepositoryUrl + "/branches/feature/module/src");
+        myWc = new File(myTemp.getRoot(), "wc");
+        run(myTemp.getRoot(), "svn", "checkout", "--non-interactive", myRepositoryUrl + "/trunk", myWc.getPath());
+    }
+
+    @Test
+    public void readsLocationInheritedFromRoot() {
+        WcDbSnapshot snapshot = read();
+
+        assertTrue(WcDbReader.isSupported(snapshot.getFormat()));
+        assertEquals(url("trunk"), snapshot.getUrl("").get());
+        assertEquals(url("trunk/module/src"), snapshot.getUrl("module/src").get());
+        assertEquals(url("trunk/module"), snapshot.getUrl("module").get());
+        assertTrue(snapshot.getSwitchedPaths().isEmpty());
+    }
+
+    @Test
+    public void readsLocationOfSwitchedSubtree() throws Exception {
+        switchModule();
+        WcDbSnapshot snapshot = read();
+
+        assertTrue(snapshot.isSwitched("module"));
+        assertFalse(snapshot.isSwitched("module/src"));
+        assertEquals(ImmutableSet.of("module"), snapshot.getSwitchedPaths());
+        assertEquals(url("branches/feature/module/src"), snapshot.getUrl("module/src").get());
+        assertEquals(url("trunk"), snapshot.getUrl("").get());
+    }
+
+    @Test
+    public void reportsSubtreesSwitchedSinceEarlierSnapshot() throws Exception {
+        WcDbSnapshot before = read();
+        switchModule();
+        WcDbSnapshot after = read();
+
+        assertEquals(ImmutableSet.of("module"), after.changedSince(before));
+        assertEquals(ImmutableSet.of("module"), before.changedSince(after));
+        assertTrue(after.changedSince(read()).isEmpty());
+    }
+
+    @Test
+    public void directoryWithoutWcDbIsNotRead() throws Exception {
+        assertFalse(WcDbReader.read(myTemp.newFolder("plain")).isPresent());
+    }
+
+    private void switchModule() throws Exception {
+        run(myWc, "svn", "switch", "--non-interactive", "--ignore-ancestry", myRepositoryUrl + "/branches/feature/module", "module");
+    }
+
+    private WcDbSnapshot read() {
+        Optional<WcDbSnapshot> snapshot = WcDbReader.read(myWc);
+        assertTrue("wc.db of " + myWc + " not read", snapshot.isPresent());
+        return snapshot.get();
+    }
+
+    private SVNURL url(String path) {
+        try {
+            return SVNURL.parseURIEncoded(myRepositoryUrl + "/" + path);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static boolean isInstalled(String command) {
+        try {
+            return exec(new File("."), command, "--version", "--quiet") == 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static void run(File directory, String... command) throws Exception {
+        assertEquals("Failed: " + Lists.newArrayList(command), 0, exec(directory, command));
+    }
+
+    private static int exec(File directory, String... command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).directory(directory).redirectErrorStream(true).start();
+        ByteStreams.toByteArray(process.getInputStream());
+        if (!process.waitFor(COMMAND_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            process.destroy();
+            return -1;
+        }
+        return process.exitValue();
+    }
+}